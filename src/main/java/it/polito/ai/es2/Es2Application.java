@@ -1,17 +1,18 @@
 package it.polito.ai.es2;
 
+import it.polito.ai.es2.components.PasswordCostCalibrator;
+import it.polito.ai.es2.components.PasswordHashingExecutor;
 import org.modelmapper.ModelMapper;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
-import org.springframework.security.crypto.factory.PasswordEncoderFactories;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 @SpringBootApplication
 public class Es2Application {
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return PasswordEncoderFactories.createDelegatingPasswordEncoder();
+    public PasswordEncoder passwordEncoder(PasswordCostCalibrator passwordCostCalibrator, PasswordHashingExecutor passwordHashingExecutor) {
+        return passwordHashingExecutor.isolate(passwordCostCalibrator.createPasswordEncoder());
     }
 
     @Bean
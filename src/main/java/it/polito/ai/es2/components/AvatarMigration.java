@@ -0,0 +1,119 @@
+package it.polito.ai.es2.components;
+
+import it.polito.ai.es2.entities.Avatar;
+import it.polito.ai.es2.repositories.AvatarRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves the avatars still stored inline in the student and teacher tables to the avatar table.
+ * Copies of the default avatar are not moved but cleared, in a single statement: users without an avatar get it
+ * anyway, and cleared rows are not read again at the next startup.
+ * <p>
+ * The migration runs while the context starts, once the schema has been updated and before the web server accepts
+ * requests or any runner such as {@link DataInitializer} runs, holding a database lock so that nodes starting
+ * together do not migrate twice. Each row is moved in its own transaction, so an interrupted migration simply
+ * resumes at the next startup.
+ * <p>
+ * The old column is only made nullable, so that rows inserted without it keep working. Dropping it is a separate
+ * step, enabled with avatars.migration.drop-inline-column in a later release, once no node still writes to it.
+ */
+@Component
+@Slf4j
+public class AvatarMigration implements InitializingBean {
+
+    private static final String[] TABLES = {"student", "teacher"};
+
+    private static final String LOCK_NAME = "avatar_migration";
+
+    private static final int LOCK_TIMEOUT_SECONDS = 300;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    AvatarRepository avatarRepo;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Value("${avatars.migration.drop-inline-column:false}")
+    private boolean dropInlineColumn;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        byte[] defaultAvatar;
+        try (InputStream inputStream = new ClassPathResource("img/default_user_avatar.png").getInputStream()) {
+            defaultAvatar = inputStream.readAllBytes();
+        }
+        // The named lock belongs to the connection of the callback; the migration itself uses other connections
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            if (!lock(connection, "SELECT GET_LOCK(?, " + LOCK_TIMEOUT_SECONDS + ")"))
+                throw new IllegalStateException("Avatar migration - Cannot acquire lock '" + LOCK_NAME + "'");
+            try {
+                for (String table : TABLES)
+                    migrate(table, defaultAvatar);
+            } finally {
+                lock(connection, "SELECT RELEASE_LOCK(?)");
+            }
+            return null;
+        });
+    }
+
+    private void migrate(String table, byte[] defaultAvatar) {
+        List<Map<String, Object>> inlineColumns = jdbcTemplate.queryForList("SELECT column_type, is_nullable FROM information_schema.columns " +
+                "WHERE table_schema = DATABASE() AND table_name = ? AND column_name = 'avatar'", table);
+        if (inlineColumns.isEmpty())
+            return;
+        if ("NO".equals(inlineColumns.get(0).get("is_nullable"))) {
+            jdbcTemplate.execute("ALTER TABLE " + table + " MODIFY avatar " + inlineColumns.get(0).get("column_type") + " NULL");
+            log.info("Avatar migration - Made column '" + table + ".avatar' nullable");
+        }
+
+        int cleared = jdbcTemplate.update("UPDATE " + table + " SET avatar = NULL WHERE avatar_id IS NULL AND avatar = ?", (Object) defaultAvatar);
+        log.info("Avatar migration - Cleared " + cleared + " copies of the default avatar in table '" + table + "'");
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        int moved = 0;
+        for (String id : jdbcTemplate.queryForList("SELECT id FROM " + table + " WHERE avatar IS NOT NULL AND avatar_id IS NULL", String.class)) {
+            byte[] content = jdbcTemplate.queryForObject("SELECT avatar FROM " + table + " WHERE id = ?", byte[].class, id);
+            transactionTemplate.executeWithoutResult(status -> {
+                Avatar avatar = avatarRepo.save(new Avatar(content));
+                jdbcTemplate.update("UPDATE " + table + " SET avatar_id = ? WHERE id = ?", avatar.getId(), id);
+            });
+            moved++;
+        }
+        log.info("Avatar migration - Moved " + moved + " avatars out of table '" + table + "'");
+
+        if (dropInlineColumn) {
+            jdbcTemplate.execute("ALTER TABLE " + table + " DROP COLUMN avatar");
+            log.info("Avatar migration - Dropped column '" + table + ".avatar'");
+        }
+    }
+
+    private static boolean lock(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, LOCK_NAME);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getInt(1) == 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package it.polito.ai.es2.components;
+
+import it.polito.ai.es2.properties.DocumentStorageProperty;
+import it.polito.ai.es2.storage.DocumentStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Deletes stored documents outside of the request that dropped them.
+ * Deletions are queued once the dropping transaction commits and drained by a single background worker;
+ * anything lost on the way (rollbacks after the bytes were stored, crashes, failed deletions)
+ * is picked up by the periodic garbage collection pass.
+ */
+@Component
+@Slf4j
+public class DocumentCleaner implements DisposableBean {
+
+    @Autowired
+    private DocumentOrphanChecker documentOrphanChecker;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    private final Duration gracePeriod;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "document-cleaner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public DocumentCleaner(DocumentStorageProperty documentStorageProperty) {
+        this.gracePeriod = documentStorageProperty.getGcGracePeriod();
+    }
+
+    public void deleteAfterCommit(String storageKey) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            worker.execute(() -> delete(storageKey));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                worker.execute(() -> delete(storageKey));
+            }
+        });
+    }
+
+    /**
+     * Deletes the stored documents no longer referenced by any document or blob.
+     * Documents younger than the grace period are left alone, as their upload may not have committed yet.
+     */
+    public int collectGarbage() throws IOException {
+        int deleted = 0;
+        try (Stream<String> storageKeys = documentStore.listKeys(Instant.now().minus(gracePeriod))) {
+            for (Iterator<String> iterator = storageKeys.iterator(); iterator.hasNext(); ) {
+                if (documentOrphanChecker.deleteIfOrphaned(iterator.next()))
+                    deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public void destroy() {
+        worker.shutdown();
+    }
+
+    private void delete(String storageKey) {
+        try {
+            documentOrphanChecker.deleteIfOrphaned(storageKey);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Document cleaner - Cannot delete document " + storageKey + ", left to garbage collection", e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package it.polito.ai.es2.components;
+
+import it.polito.ai.es2.repositories.DocumentBlobRepository;
+import it.polito.ai.es2.repositories.DocumentRepository;
+import it.polito.ai.es2.storage.DocumentContentCache;
+import it.polito.ai.es2.storage.DocumentStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.transaction.Transactional;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * Deletes stored bytes that nothing refers to any more, on behalf of the {@link DocumentCleaner}.
+ */
+@Component
+public class DocumentOrphanChecker {
+
+    @Autowired
+    private DocumentRepository documentRepo;
+
+    @Autowired
+    private DocumentBlobRepository blobRepo;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    @Autowired
+    private DocumentContentCache documentContentCache;
+
+    /**
+     * Deletes the stored bytes unless a blob or a document still refers to them. The locking read of the blob row
+     * serializes this check with an upload of the same content, which inserts the row before storing the bytes:
+     * the check either waits for the upload to commit and sees its row or, through the gap lock taken when the row
+     * is missing, makes the upload wait until the bytes have been deleted.
+     */
+    @Transactional
+    public boolean deleteIfOrphaned(String storageKey) throws IOException {
+        if (blobRepo.findForUpdate(storageKey).isPresent() || documentRepo.existsByHashOrContentHash(storageKey, storageKey))
+            return false;
+        documentContentCache.evict(storageKey);
+        try {
+            documentStore.delete(storageKey);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package it.polito.ai.es2.components;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import java.math.BigInteger;
+import java.security.*;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * RSA key set used to sign and verify access tokens with RS256.
+ * The signing node generates its keys in memory and rotates them on schedule; retired public keys stay
+ * available, under their key id, for as long as tokens signed with them may be valid.
+ * Verifier-only nodes have no private key: they fetch the public keys from the JWKS endpoint of the signing node
+ * when they meet an unknown key id, and cannot issue tokens, so /auth/login and /auth/refresh must be routed
+ * to the signing node. Lookups by key id never lock.
+ * <p>
+ * Each unknown key id forces one fetch, so a key rotated right after the last fetch is picked up by the first
+ * token signed with it. Key ids are attacker controlled, though: one still unknown after a fetch is not
+ * fetched again for a while, fetches start at most once per second, and the requests meeting unknown key ids
+ * meanwhile wait for the fetch in progress, which runs in the background.
+ */
+@Component
+@Slf4j
+public class JwtKeySet implements DisposableBean {
+
+    public static final String RS256 = "RS256";
+
+    private static final Duration JWKS_MIN_REFRESH_INTERVAL = Duration.ofSeconds(1);
+
+    private static final Duration JWKS_FETCH_TIMEOUT = Duration.ofSeconds(5);
+
+    private static final Duration UNKNOWN_KEY_ID_RETENTION = Duration.ofSeconds(30);
+
+    @Value("${security.jwt.token.algorithm:HS256}")
+    private String algorithm;
+
+    @Value("${security.jwt.token.key-size:2048}")
+    private int keySize;
+
+    @Value("${security.jwt.token.expire-length:3600000}") // Default: 1h
+    private long validityInMilliseconds;
+
+    @Value("${security.jwt.token.jwks-uri:}")
+    private String jwksUri;
+
+    private final Map<String, RSAPublicKey> verificationKeys = new ConcurrentHashMap<>();
+
+    private final Map<String, Instant> retirements = new ConcurrentHashMap<>();
+
+    private volatile SigningKey signingKey;
+
+    private final Cache<String, Boolean> unknownKeyIds = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(UNKNOWN_KEY_ID_RETENTION)
+            .build();
+
+    /**
+     * The last fetch, completed with the instant it started at.
+     */
+    private final AtomicReference<CompletableFuture<Instant>> jwksRefresh =
+            new AtomicReference<>(CompletableFuture.completedFuture(Instant.EPOCH));
+
+    private final ExecutorService jwksFetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jwks-fetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RestTemplate restTemplate = new RestTemplateBuilder()
+            .setConnectTimeout(JWKS_FETCH_TIMEOUT)
+            .setReadTimeout(JWKS_FETCH_TIMEOUT)
+            .build();
+
+    @PostConstruct
+    protected void init() {
+        if (isEnabled() && isSigningNode())
+            rotate();
+    }
+
+    public boolean isEnabled() {
+        return RS256.equals(algorithm);
+    }
+
+    public boolean isSigningNode() {
+        return jwksUri.isEmpty();
+    }
+
+    /**
+     * Whether this node can issue access tokens: always with HS256, only on the signing node with RS256.
+     */
+    public boolean canSign() {
+        return !isEnabled() || isSigningNode();
+    }
+
+    public SigningKey getSigningKey() {
+        if (signingKey == null)
+            throw new IllegalStateException("This node has no signing key");
+        return signingKey;
+    }
+
+    /**
+     * Starts signing with a fresh key pair. The previous public key is kept until the last token it signed expires.
+     */
+    public synchronized void rotate() {
+        if (!isEnabled() || !isSigningNode())
+            return;
+        KeyPairGenerator generator;
+        try {
+            generator = KeyPairGenerator.getInstance("RSA");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        generator.initialize(keySize);
+        KeyPair keyPair = generator.generateKeyPair();
+        String keyId = UUID.randomUUID().toString();
+
+        verificationKeys.put(keyId, (RSAPublicKey) keyPair.getPublic());
+        if (signingKey != null)
+            retirements.put(signingKey.getKeyId(), Instant.now().plusMillis(validityInMilliseconds));
+        signingKey = new SigningKey(keyId, keyPair.getPrivate());
+
+        Instant now = Instant.now();
+        retirements.entrySet().removeIf(retirement -> {
+            if (retirement.getValue().isAfter(now))
+                return false;
+            verificationKeys.remove(retirement.getKey());
+            return true;
+        });
+        log.info("JWT key rotation - Signing with key " + keyId + ", " + verificationKeys.size() + " keys published");
+    }
+
+    public Optional<PublicKey> getVerificationKey(String keyId) {
+        RSAPublicKey key = verificationKeys.get(keyId);
+        if (key == null && !isSigningNode() && keyId != null && unknownKeyIds.getIfPresent(keyId) == null) {
+            Instant requested = Instant.now();
+            Optional<Instant> fetched = awaitJwksRefresh();
+            key = verificationKeys.get(keyId);
+            // Only a fetch started after the key id was met proves it unknown
+            if (key == null && fetched.map(started -> !started.isBefore(requested)).orElse(false))
+                unknownKeyIds.put(keyId, true);
+        }
+        return Optional.ofNullable(key);
+    }
+
+    /**
+     * Public keys in JSON Web Key Set format.
+     */
+    public Map<String, Object> toJwks() {
+        List<Map<String, Object>> keys = new ArrayList<>();
+        verificationKeys.forEach((keyId, key) -> {
+            Map<String, Object> jwk = new LinkedHashMap<>();
+            jwk.put("kty", "RSA");
+            jwk.put("use", "sig");
+            jwk.put("alg", RS256);
+            jwk.put("kid", keyId);
+            jwk.put("n", encode(key.getModulus()));
+            jwk.put("e", encode(key.getPublicExponent()));
+            keys.add(jwk);
+        });
+        return Collections.singletonMap("keys", keys);
+    }
+
+    @Override
+    public void destroy() {
+        jwksFetcher.shutdown();
+    }
+
+    /**
+     * Joins the fetch in progress, or starts one unless the last one started less than the minimum interval ago,
+     * and waits for it. Returns the instant the fetch waited for started at, or nothing if it did not complete
+     * in time.
+     */
+    private Optional<Instant> awaitJwksRefresh() {
+        CompletableFuture<Instant> refresh = jwksRefresh.get();
+        Instant now = Instant.now();
+        if (refresh.isDone() && refresh.join().plus(JWKS_MIN_REFRESH_INTERVAL).isBefore(now)) {
+            CompletableFuture<Instant> next = new CompletableFuture<>();
+            if (jwksRefresh.compareAndSet(refresh, next))
+                jwksFetcher.execute(() -> {
+                    try {
+                        fetchJwks();
+                    } finally {
+                        next.complete(now);
+                    }
+                });
+            refresh = jwksRefresh.get();
+        }
+        try {
+            return Optional.of(refresh.get(JWKS_FETCH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } catch (ExecutionException | TimeoutException e) {
+            return Optional.empty();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fetchJwks() {
+        try {
+            Map<String, Object> jwks = restTemplate.getForObject(jwksUri, Map.class);
+            if (jwks == null || !(jwks.get("keys") instanceof List))
+                return;
+            Map<String, RSAPublicKey> fetched = new HashMap<>();
+            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+            for (Map<String, Object> jwk : (List<Map<String, Object>>) jwks.get("keys")) {
+                if (!"RSA".equals(jwk.get("kty")))
+                    continue;
+                fetched.put((String) jwk.get("kid"), (RSAPublicKey) keyFactory.generatePublic(new RSAPublicKeySpec(
+                        decode((String) jwk.get("n")), decode((String) jwk.get("e")))));
+            }
+            verificationKeys.putAll(fetched);
+            verificationKeys.keySet().retainAll(fetched.keySet());
+        } catch (RestClientException | GeneralSecurityException | ClassCastException e) {
+            log.warn("JWT key set - Cannot fetch " + jwksUri, e);
+        }
+    }
+
+    private static String encode(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        // Unsigned big-endian: drop the sign byte
+        if (bytes.length > 1 && bytes[0] == 0)
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static BigInteger decode(String value) {
+        return new BigInteger(1, Base64.getUrlDecoder().decode(value));
+    }
+
+    public static class SigningKey {
+
+        private final String keyId;
+
+        private final PrivateKey privateKey;
+
+        SigningKey(String keyId, PrivateKey privateKey) {
+            this.keyId = keyId;
+            this.privateKey = privateKey;
+        }
+
+        public String getKeyId() {
+            return keyId;
+        }
+
+        public PrivateKey getPrivateKey() {
+            return privateKey;
+        }
+    }
+}
@@ -1,21 +1,30 @@
 package it.polito.ai.es2.components;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.*;
 import it.polito.ai.es2.filters.InvalidJwtAuthenticationException;
+import it.polito.ai.es2.utility.MembershipClaims;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
-import java.util.Base64;
-import java.util.Date;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Component
 public class JwtTokenProvider {
@@ -26,6 +35,30 @@ public class JwtTokenProvider {
     @Value("${security.jwt.token.expire-length:3600000}") // Default: 1h
     private long validityInMilliseconds;
 
+    @Value("${security.jwt.token.stateless:false}")
+    private boolean stateless;
+
+    @Value("${security.jwt.token.cache-size:1024}")
+    private int cacheSize;
+
+    private Cache<String, VerifiedToken> verifiedTokens;
+
+    @Autowired
+    private TokenDenylist tokenDenylist;
+
+    @Autowired
+    private JwtKeySet jwtKeySet;
+
+    private final SigningKeyResolver keySetResolver = new SigningKeyResolverAdapter() {
+        @Override
+        public Key resolveSigningKey(JwsHeader header, Claims claims) {
+            if (!JwtKeySet.RS256.equals(header.getAlgorithm()))
+                throw new UnsupportedJwtException("Unexpected JWT algorithm " + header.getAlgorithm());
+            return jwtKeySet.getVerificationKey(header.getKeyId())
+                    .orElseThrow(() -> new UnsupportedJwtException("Unknown JWT key id " + header.getKeyId()));
+        }
+    };
+
     @Autowired
     @Qualifier("userDetailsServiceImpl")
     private UserDetailsService userDetailsService;
@@ -33,31 +66,96 @@ public class JwtTokenProvider {
     @PostConstruct
     protected void init() {
         secretKey = Base64.getEncoder().encodeToString(secretKey.getBytes());
+        verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfter(new Expiry<String, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(String signature, VerifiedToken verifiedToken, long currentTime) {
+                        return verifiedToken.nanosToExpiry();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String signature, VerifiedToken verifiedToken, long currentTime, long currentDuration) {
+                        return verifiedToken.nanosToExpiry();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String signature, VerifiedToken verifiedToken, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
     }
 
     public String createToken(String username, List<String> roles) {
+        return createToken(username, roles, null);
+    }
+
+    /**
+     * Creates a token that also carries the course memberships of the user, valid as long as
+     * the membership version stamped on it is the current one.
+     */
+    public String createToken(String username, List<String> roles, Collection<Long> courseIds, long membershipVersion) {
+        Claims claims = Jwts.claims();
+        claims.put(MembershipClaims.COURSES_CLAIM, MembershipClaims.encode(courseIds));
+        claims.put(MembershipClaims.VERSION_CLAIM, membershipVersion);
+        return createToken(username, roles, claims);
+    }
+
+    private String createToken(String username, List<String> roles, Claims extraClaims) {
 
         Claims claims = Jwts.claims().setSubject(username);
         claims.put("roles", roles);
+        if (extraClaims != null)
+            claims.putAll(extraClaims);
 
         Date now = new Date();
         Date validity = new Date(now.getTime() + validityInMilliseconds);
 
-        return Jwts.builder()
+        JwtBuilder builder = Jwts.builder()
                 .setClaims(claims)
+                .setId(UUID.randomUUID().toString())
                 .setIssuedAt(now)
-                .setExpiration(validity)
-                .signWith(SignatureAlgorithm.HS256, secretKey)
-                .compact();
+                .setExpiration(validity);
+        if (jwtKeySet.isEnabled()) {
+            JwtKeySet.SigningKey signingKey = jwtKeySet.getSigningKey();
+            return builder.setHeaderParam(JwsHeader.KEY_ID, signingKey.getKeyId())
+                    .signWith(SignatureAlgorithm.RS256, signingKey.getPrivateKey())
+                    .compact();
+        }
+        return builder.signWith(SignatureAlgorithm.HS256, secretKey).compact();
+    }
+
+    /**
+     * In stateless mode the principal is built from the verified claims of the token alone,
+     * otherwise the user is loaded from the database.
+     */
+    public Authentication getAuthentication(Claims claims) {
+        UserDetails userDetails;
+        if (stateless) {
+            @SuppressWarnings("unchecked")
+            List<String> roles = claims.get("roles", List.class);
+            userDetails = new User(claims.getSubject(), "", roles.stream()
+                    .map(SimpleGrantedAuthority::new)
+                    .collect(Collectors.toList()));
+        } else
+            userDetails = this.userDetailsService.loadUserByUsername(claims.getSubject());
+        UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(userDetails, "", userDetails.getAuthorities());
+        if (claims.containsKey(MembershipClaims.COURSES_CLAIM) && claims.containsKey(MembershipClaims.VERSION_CLAIM))
+            authentication.setDetails(new MembershipClaims(claims.get(MembershipClaims.COURSES_CLAIM, String.class),
+                    claims.get(MembershipClaims.VERSION_CLAIM, Long.class)));
+        return authentication;
     }
 
-    public Authentication getAuthentication(String token) {
-        UserDetails userDetails = this.userDetailsService.loadUserByUsername(getUsername(token));
-        return new UsernamePasswordAuthenticationToken(userDetails, "", userDetails.getAuthorities());
+    public void revokeToken(Claims claims) {
+        if (claims.getId() != null)
+            tokenDenylist.revokeToken(claims.getId(), claims.getExpiration().toInstant());
+        else
+            tokenDenylist.revokeUser(claims.getSubject());
     }
 
-    public String getUsername(String token) {
-        return Jwts.parser().setSigningKey(secretKey).parseClaimsJws(token).getBody().getSubject();
+    public void revokeTokensOf(String username) {
+        tokenDenylist.revokeUser(username);
     }
 
     public String resolveToken(HttpServletRequest request) {
@@ -67,12 +165,53 @@ public class JwtTokenProvider {
         else return null;
     }
 
-    public boolean validateToken(String token) {
+    /**
+     * Verifies the token and returns its claims, parsing it only the first time it is seen:
+     * recently verified tokens are remembered, keyed by their signature, each until its own expiration.
+     * Revocation is checked on every call.
+     */
+    public Claims validateToken(String token) {
+        Claims claims = verify(token);
+        if (claims.getExpiration().before(new Date()))
+            throw new InvalidJwtAuthenticationException("Expired or invalid JWT token");
+        if (tokenDenylist.isRevoked(claims.getId(), claims.getSubject(), claims.getIssuedAt().toInstant()))
+            throw new InvalidJwtAuthenticationException("Revoked JWT token");
+        return claims;
+    }
+
+    private Claims verify(String token) {
+        String signature = token.substring(token.lastIndexOf('.') + 1);
+        VerifiedToken verifiedToken = verifiedTokens.getIfPresent(signature);
+        // The whole token is compared, so that a known signature cannot vouch for different claims
+        if (verifiedToken != null && MessageDigest.isEqual(verifiedToken.token, token.getBytes(StandardCharsets.US_ASCII)))
+            return verifiedToken.claims;
+
+        Claims claims;
         try {
-            Jws<Claims> claims = Jwts.parser().setSigningKey(secretKey).parseClaimsJws(token);
-            return !claims.getBody().getExpiration().before(new Date());
+            JwtParser parser = jwtKeySet.isEnabled()
+                    ? Jwts.parser().setSigningKeyResolver(keySetResolver)
+                    : Jwts.parser().setSigningKey(secretKey);
+            claims = parser.parseClaimsJws(token).getBody();
         } catch (JwtException | IllegalArgumentException e) {
             throw new InvalidJwtAuthenticationException("Expired or invalid JWT token");
         }
+        verifiedTokens.put(signature, new VerifiedToken(token.getBytes(StandardCharsets.US_ASCII), claims));
+        return claims;
+    }
+
+    private static class VerifiedToken {
+
+        private final byte[] token;
+
+        private final Claims claims;
+
+        VerifiedToken(byte[] token, Claims claims) {
+            this.token = token;
+            this.claims = claims;
+        }
+
+        long nanosToExpiry() {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, claims.getExpiration().getTime() - System.currentTimeMillis()));
+        }
     }
 }
@@ -0,0 +1,90 @@
+package it.polito.ai.es2.components;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Token buckets limiting the authentication attempts per username and per client address.
+ * A whole lab behind the campus NAT shares one address, so addresses get a much larger capacity than usernames;
+ * behind a reverse proxy the address is the one it forwards (see server.forward-headers-strategy).
+ * Idle buckets are full anyway, so they are dropped after a while to keep memory bounded.
+ */
+@Component
+public class LoginRateLimiter {
+
+    private final int usernameCapacity;
+
+    private final int addressCapacity;
+
+    private final long refillPeriodNanos;
+
+    private final Cache<String, TokenBucket> buckets;
+
+    private final Counter usernameRejections;
+
+    private final Counter addressRejections;
+
+    @Autowired
+    public LoginRateLimiter(@Value("${security.login-rate-limit.capacity:10}") int usernameCapacity,
+                            @Value("${security.login-rate-limit.address-capacity:300}") int addressCapacity,
+                            @Value("${security.login-rate-limit.refill-period:1m}") Duration refillPeriod,
+                            MeterRegistry meterRegistry) {
+        this.usernameCapacity = usernameCapacity;
+        this.addressCapacity = addressCapacity;
+        this.refillPeriodNanos = refillPeriod.toNanos();
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterAccess(refillPeriod)
+                .build();
+        this.usernameRejections = Counter.builder("auth.rate_limited").tag("key", "username")
+                .description("Authentication attempts rejected by the rate limiter").register(meterRegistry);
+        this.addressRejections = Counter.builder("auth.rate_limited").tag("key", "address")
+                .description("Authentication attempts rejected by the rate limiter").register(meterRegistry);
+    }
+
+    public boolean tryAcquire(String username, String address) {
+        if (!buckets.get("address:" + address, key -> new TokenBucket(addressCapacity)).tryConsume()) {
+            addressRejections.increment();
+            return false;
+        }
+        if (username != null && !buckets.get("username:" + username, key -> new TokenBucket(usernameCapacity)).tryConsume()) {
+            usernameRejections.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private class TokenBucket {
+
+        private final int capacity;
+
+        private final double refillPerNano;
+
+        private double tokens;
+
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(int capacity) {
+            this.capacity = capacity;
+            this.refillPerNano = (double) capacity / refillPeriodNanos;
+            this.tokens = capacity;
+        }
+
+        synchronized boolean tryConsume() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerNano);
+            lastRefill = now;
+            if (tokens < 1)
+                return false;
+            tokens--;
+            return true;
+        }
+    }
+}
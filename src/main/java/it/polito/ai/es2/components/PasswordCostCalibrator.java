@@ -0,0 +1,119 @@
+package it.polito.ai.es2.components;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collections;
+
+/**
+ * Chooses the bcrypt cost of this node by timing hashes at startup: the cost is the highest one whose
+ * hash still fits the latency target. A fixed cost can be configured instead, so that every node agrees.
+ * Either way the cost never goes below the bcrypt default, however slow the node is when it starts.
+ */
+@Component
+@Slf4j
+public class PasswordCostCalibrator {
+
+    public static final String ALGORITHM = "bcrypt";
+
+    private static final int MIN_COST = 4;
+
+    private static final int MIN_SECURE_COST = 10;
+
+    private static final int MAX_COST = 16;
+
+    private final int cost;
+
+    @Autowired
+    public PasswordCostCalibrator(@Value("${security.password-hashing.cost:0}") int configuredCost,
+                                  @Value("${security.password-hashing.target-latency:250ms}") Duration targetLatency) {
+        if (configuredCost > 0) {
+            if (configuredCost < MIN_SECURE_COST)
+                log.warn("Configured bcrypt cost " + configuredCost + " is below the minimum, using " + MIN_SECURE_COST);
+            this.cost = Math.min(Math.max(configuredCost, MIN_SECURE_COST), MAX_COST);
+            log.info("Using configured bcrypt cost " + cost);
+        } else {
+            this.cost = calibrate(targetLatency);
+            log.info("Calibrated bcrypt cost " + cost + " for a target latency of " + targetLatency.toMillis() + "ms");
+        }
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * Encodes with the calibrated bcrypt cost and asks for an upgrade of every other hash, including bcrypt
+     * hashes of a lower cost; hashes of a higher cost are kept. Hashes of the other algorithms supported
+     * by Spring can still be matched.
+     */
+    public PasswordEncoder createPasswordEncoder() {
+        DelegatingPasswordEncoder passwordEncoder = new DelegatingPasswordEncoder(ALGORITHM,
+                Collections.singletonMap(ALGORITHM, new CalibratedBCryptPasswordEncoder(cost)));
+        passwordEncoder.setDefaultPasswordEncoderForMatches(PasswordEncoderFactories.createDelegatingPasswordEncoder());
+        return passwordEncoder;
+    }
+
+    /**
+     * Returns the cost of a bcrypt hash, with or without the algorithm prefix, or null for any other hash.
+     */
+    public static Integer bcryptCost(String encodedPassword) {
+        if (encodedPassword == null)
+            return null;
+        String hash = encodedPassword.startsWith("{" + ALGORITHM + "}")
+                ? encodedPassword.substring(ALGORITHM.length() + 2)
+                : encodedPassword;
+        if (hash.length() < 7 || !hash.startsWith("$2") || hash.charAt(hash.indexOf('$', 1) + 3) != '$')
+            return null;
+        int start = hash.indexOf('$', 1) + 1;
+        try {
+            return Integer.parseInt(hash.substring(start, start + 2));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int calibrate(Duration targetLatency) {
+        // The first hashes also pay for class loading and JIT warm-up
+        new BCryptPasswordEncoder(MIN_COST).encode("calibration");
+        if (hashTime(MIN_SECURE_COST) > targetLatency.toNanos()) {
+            log.warn("A bcrypt hash of cost " + MIN_SECURE_COST + " takes longer than the target latency of "
+                    + targetLatency.toMillis() + "ms, using it anyway");
+            return MIN_SECURE_COST;
+        }
+        int cost = MIN_SECURE_COST;
+        while (cost < MAX_COST && hashTime(cost + 1) <= targetLatency.toNanos())
+            cost++;
+        return cost;
+    }
+
+    private static long hashTime(int cost) {
+        long start = System.nanoTime();
+        new BCryptPasswordEncoder(cost).encode("calibration");
+        return System.nanoTime() - start;
+    }
+
+    private static class CalibratedBCryptPasswordEncoder extends BCryptPasswordEncoder {
+
+        private final int strength;
+
+        CalibratedBCryptPasswordEncoder(int strength) {
+            super(strength);
+            this.strength = strength;
+        }
+
+        @Override
+        public boolean upgradeEncoding(String encodedPassword) {
+            Integer storedCost = bcryptCost(encodedPassword);
+            // A node calibrated lower than the one that hashed the password never weakens it
+            return storedCost == null || storedCost < strength;
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package it.polito.ai.es2.components;
 
+import it.polito.ai.es2.services.DocumentService;
 import it.polito.ai.es2.services.NotificationService;
+import it.polito.ai.es2.services.RefreshTokenService;
 import it.polito.ai.es2.services.TeamService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+
 @Component
 @Slf4j
 public class ScheduledTasks {
@@ -17,6 +21,18 @@ public class ScheduledTasks {
     @Autowired
     TeamService teamService;
 
+    @Autowired
+    DocumentService documentService;
+
+    @Autowired
+    DocumentCleaner documentCleaner;
+
+    @Autowired
+    RefreshTokenService refreshTokenService;
+
+    @Autowired
+    JwtKeySet jwtKeySet;
+
     @Scheduled(cron = "${cron.token-check}")
     public void tokenCheck() {
         log.info("Token check - Started...");
@@ -25,6 +41,8 @@ public class ScheduledTasks {
                 tokenId -> log.info("Token check - Expired token deleted (" + tokenId +")")
         );
 
+        log.info("Token check - Deleted " + refreshTokenService.deleteExpired() + " expired refresh tokens");
+
         log.info("Token check - Finished.");
     }
 
@@ -38,4 +56,41 @@ public class ScheduledTasks {
 
         log.info("Assignment check - Finished.");
     }
+
+    @Scheduled(cron = "${cron.document-migration}")
+    public void documentMigration() {
+        log.info("Document migration - Started...");
+
+        try {
+            log.info("Document migration - Moved " + documentService.migrateStorageLayout() + " documents to the sharded layout");
+        } catch (IOException e) {
+            log.error("Document migration - Failed", e);
+        }
+
+        log.info("Document migration - Finished.");
+    }
+
+    @Scheduled(cron = "${cron.document-gc}")
+    public void documentGarbageCollection() {
+        log.info("Document GC - Started...");
+
+        try {
+            log.info("Document GC - Deleted " + documentCleaner.collectGarbage() + " orphaned documents");
+        } catch (IOException e) {
+            log.error("Document GC - Failed", e);
+        }
+
+        log.info("Document GC - Finished.");
+    }
+
+    @Scheduled(cron = "${cron.jwt-key-rotation}")
+    public void jwtKeyRotation() {
+        if (!jwtKeySet.isEnabled() || !jwtKeySet.isSigningNode())
+            return;
+        log.info("JWT key rotation - Started...");
+
+        jwtKeySet.rotate();
+
+        log.info("JWT key rotation - Finished.");
+    }
 }
@@ -0,0 +1,58 @@
+package it.polito.ai.es2.components;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Revoked access tokens, kept only until they would have expired anyway.
+ * Single tokens are revoked by id; all the tokens of a user issued up to now are revoked with a single entry,
+ * so the list stays small whatever the number of tokens around.
+ * The list lives in memory: a restart forgets revocations, which is bounded by the token lifetime.
+ * It is not shared either: with several nodes, a revocation is only honoured by the node that handled it,
+ * and the other nodes keep accepting the token until it expires. That is why stateless mode, where the list is
+ * the only check besides the signature, is opt-in: otherwise the user is loaded on every request, and removed
+ * users or changed passwords apply on every node once the user cache expires.
+ */
+@Component
+public class TokenDenylist {
+
+    @Value("${security.jwt.token.expire-length:3600000}") // Default: 1h
+    private long validityInMilliseconds;
+
+    private final Map<String, Instant> revokedTokens = new ConcurrentHashMap<>();
+
+    private final Map<String, Instant> revokedUsers = new ConcurrentHashMap<>();
+
+    public void revokeToken(String tokenId, Instant expiration) {
+        purge();
+        revokedTokens.put(tokenId, expiration);
+    }
+
+    /**
+     * Revokes the tokens issued to the user up to now. Token issue times have a resolution of seconds,
+     * so the whole current second is revoked, including tokens issued in it just after the revocation;
+     * a later cut supersedes the earlier ones.
+     */
+    public void revokeUser(String username) {
+        purge();
+        revokedUsers.put(username, Instant.now().truncatedTo(ChronoUnit.SECONDS));
+    }
+
+    public boolean isRevoked(String tokenId, String username, Instant issuedAt) {
+        if (tokenId != null && revokedTokens.containsKey(tokenId))
+            return true;
+        Instant cut = revokedUsers.get(username);
+        return cut != null && !issuedAt.isAfter(cut);
+    }
+
+    private void purge() {
+        Instant now = Instant.now();
+        revokedTokens.values().removeIf(expiration -> expiration.isBefore(now));
+        revokedUsers.values().removeIf(cut -> cut.plusMillis(validityInMilliseconds).isBefore(now));
+    }
+}
@@ -1,8 +1,25 @@
 package it.polito.ai.es2.configurations;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.access.AccessDecisionManager;
+import org.springframework.security.access.AccessDecisionVoter;
+import org.springframework.security.access.annotation.Jsr250Voter;
+import org.springframework.security.access.expression.method.ExpressionBasedPreInvocationAdvice;
+import org.springframework.security.access.hierarchicalroles.RoleHierarchy;
+import org.springframework.security.access.method.MethodSecurityMetadataSource;
+import org.springframework.security.access.prepost.PreInvocationAuthorizationAdviceVoter;
+import org.springframework.security.access.prepost.PrePostAnnotationSecurityMetadataSource;
+import org.springframework.security.access.vote.AffirmativeBased;
+import org.springframework.security.access.vote.AuthenticatedVoter;
+import org.springframework.security.access.vote.RoleVoter;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.config.annotation.method.configuration.GlobalMethodSecurityConfiguration;
+import org.springframework.security.config.core.GrantedAuthorityDefaults;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 @EnableGlobalMethodSecurity(
@@ -11,4 +28,44 @@ import org.springframework.security.config.annotation.method.configuration.Globa
         jsr250Enabled = true
 )
 public class MethodSecurityConfig extends GlobalMethodSecurityConfiguration {
+
+    private static final String DEFAULT_ROLE_PREFIX = "ROLE_";
+
+    @Autowired
+    ObjectProvider<RoleHierarchy> roleHierarchy;
+
+    @Autowired
+    ObjectProvider<GrantedAuthorityDefaults> grantedAuthorityDefaults;
+
+    /**
+     * Reads {@code @PreAuthorize} and the other pre/post annotations ahead of the default source, so that each
+     * expression comes with the rule {@link RoleGuardedPreInvocationAdvice} decides it by.
+     */
+    @Override
+    protected MethodSecurityMetadataSource customMethodSecurityMetadataSource() {
+        return new PrePostAnnotationSecurityMetadataSource(new RoleGuardedPreInvocationAdvice.AttributeFactory(getExpressionHandler()));
+    }
+
+    /**
+     * Same voters as the default, but {@code @PreAuthorize} expressions are decided from the roles alone when
+     * these settle them. The expression handler is still the one Spring configures, with its bean resolver.
+     */
+    @Override
+    protected AccessDecisionManager accessDecisionManager() {
+        GrantedAuthorityDefaults authorityDefaults = grantedAuthorityDefaults.getIfUnique();
+        String rolePrefix = authorityDefaults != null ? authorityDefaults.getRolePrefix() : DEFAULT_ROLE_PREFIX;
+
+        ExpressionBasedPreInvocationAdvice expressionAdvice = new ExpressionBasedPreInvocationAdvice();
+        expressionAdvice.setExpressionHandler(getExpressionHandler());
+
+        List<AccessDecisionVoter<?>> decisionVoters = new ArrayList<>();
+        decisionVoters.add(new PreInvocationAuthorizationAdviceVoter(
+                new RoleGuardedPreInvocationAdvice(expressionAdvice, roleHierarchy.getIfUnique(), rolePrefix)));
+        decisionVoters.add(new Jsr250Voter());
+        RoleVoter roleVoter = new RoleVoter();
+        roleVoter.setRolePrefix(rolePrefix);
+        decisionVoters.add(roleVoter);
+        decisionVoters.add(new AuthenticatedVoter());
+        return new AffirmativeBased(decisionVoters);
+    }
 }
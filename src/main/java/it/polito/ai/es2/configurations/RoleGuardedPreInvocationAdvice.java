@@ -0,0 +1,196 @@
+package it.polito.ai.es2.configurations;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.*;
+import org.springframework.expression.spel.standard.SpelExpression;
+import org.springframework.security.access.expression.SecurityExpressionRoot;
+import org.springframework.security.access.expression.method.ExpressionBasedAnnotationAttributeFactory;
+import org.springframework.security.access.expression.method.MethodSecurityExpressionHandler;
+import org.springframework.security.access.hierarchicalroles.RoleHierarchy;
+import org.springframework.security.access.prepost.PostInvocationAttribute;
+import org.springframework.security.access.prepost.PreInvocationAttribute;
+import org.springframework.security.access.prepost.PreInvocationAuthorizationAdvice;
+import org.springframework.security.access.prepost.PrePostInvocationAttributeFactory;
+import org.springframework.security.core.Authentication;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides a {@code @PreAuthorize} from the roles of the caller whenever they settle it, and only otherwise
+ * evaluates the expression. When Spring reads the annotations of a method, {@link AttributeFactory} compiles
+ * the expression once into a rule over its {@code hasRole}, {@code hasAnyRole}, {@code hasAuthority} and
+ * {@code hasAnyAuthority} calls combined through {@code and}, {@code or} and {@code !}; any other term, such as
+ * a {@code @permissionEvaluator} call, is unknown. An admin is thus let through
+ * {@code (hasRole('ROLE_TEACHER') and @permissionEvaluator...) or hasRole('ROLE_ADMIN')} and a student turned
+ * away, both without an evaluation context or a bean call, while a teacher still evaluates it.
+ * Roles are checked like the expression would, with the same role hierarchy and prefix.
+ */
+public class RoleGuardedPreInvocationAdvice implements PreInvocationAuthorizationAdvice {
+
+    /**
+     * Rule of a term that the roles alone do not decide.
+     */
+    private static final Rule UNDECIDED = root -> null;
+
+    private final PreInvocationAuthorizationAdvice delegate;
+
+    private final RoleHierarchy roleHierarchy;
+
+    private final String rolePrefix;
+
+    public RoleGuardedPreInvocationAdvice(PreInvocationAuthorizationAdvice delegate, RoleHierarchy roleHierarchy, String rolePrefix) {
+        this.delegate = delegate;
+        this.roleHierarchy = roleHierarchy;
+        this.rolePrefix = rolePrefix;
+    }
+
+    @Override
+    public boolean before(Authentication authentication, MethodInvocation mi, PreInvocationAttribute preInvocationAttribute) {
+        if (!(preInvocationAttribute instanceof Attribute))
+            return delegate.before(authentication, mi, preInvocationAttribute);
+        Attribute attribute = (Attribute) preInvocationAttribute;
+        Boolean decision = decide(authentication, attribute.rule);
+        if (Boolean.FALSE.equals(decision))
+            return false;
+        // A @PreFilter still has to run on the arguments
+        if (Boolean.TRUE.equals(decision) && !attribute.filtered)
+            return true;
+        return delegate.before(authentication, mi, attribute.expressionAttribute);
+    }
+
+    /**
+     * Returns what the roles of the caller make of the rule, or null when they do not settle it.
+     */
+    private Boolean decide(Authentication authentication, Rule rule) {
+        if (rule == UNDECIDED)
+            return null;
+        SecurityExpressionRoot root = new SecurityExpressionRoot(authentication) {
+        };
+        root.setRoleHierarchy(roleHierarchy);
+        root.setDefaultRolePrefix(rolePrefix);
+        return rule.decide(root);
+    }
+
+    private static Rule compile(SpelNode node) {
+        if (node instanceof OperatorNot) {
+            Rule rule = compile(node.getChild(0));
+            if (rule == UNDECIDED)
+                return UNDECIDED;
+            return root -> {
+                Boolean decision = rule.decide(root);
+                return decision == null ? null : !decision;
+            };
+        }
+        if (node instanceof OpAnd || node instanceof OpOr) {
+            // true settles an "or" and false an "and"; an unknown term leaves the others to settle it
+            Boolean settling = node instanceof OpOr;
+            List<Rule> rules = new ArrayList<>();
+            for (int i = 0; i < node.getChildCount(); i++)
+                rules.add(compile(node.getChild(i)));
+            if (rules.stream().allMatch(rule -> rule == UNDECIDED))
+                return UNDECIDED;
+            return root -> {
+                boolean undecided = false;
+                for (Rule rule : rules) {
+                    Boolean decision = rule.decide(root);
+                    if (settling.equals(decision))
+                        return settling;
+                    undecided |= decision == null;
+                }
+                return undecided ? null : !settling;
+            };
+        }
+        if (node instanceof MethodReference)
+            return compileRoleCheck((MethodReference) node);
+        return UNDECIDED;
+    }
+
+    private static Rule compileRoleCheck(MethodReference node) {
+        String[] arguments = new String[node.getChildCount()];
+        for (int i = 0; i < arguments.length; i++) {
+            if (!(node.getChild(i) instanceof StringLiteral))
+                return UNDECIDED;
+            arguments[i] = (String) ((StringLiteral) node.getChild(i)).getLiteralValue().getValue();
+        }
+        if (arguments.length == 0)
+            return UNDECIDED;
+        switch (node.getName()) {
+            case "hasRole":
+            case "hasAnyRole":
+                return root -> root.hasAnyRole(arguments);
+            case "hasAuthority":
+            case "hasAnyAuthority":
+                return root -> root.hasAnyAuthority(arguments);
+            default:
+                return UNDECIDED;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Rule {
+
+        /**
+         * Returns the value of the term for the roles of the root, or null when they do not settle it.
+         */
+        Boolean decide(SecurityExpressionRoot root);
+    }
+
+    /**
+     * Creates the attributes Spring would, and pairs each {@code @PreAuthorize} with its rule. The rule is
+     * compiled from the same expression string, parsed by the parser of the expression handler.
+     */
+    public static class AttributeFactory implements PrePostInvocationAttributeFactory {
+
+        private final MethodSecurityExpressionHandler expressionHandler;
+
+        private final PrePostInvocationAttributeFactory delegate;
+
+        public AttributeFactory(MethodSecurityExpressionHandler expressionHandler) {
+            this.expressionHandler = expressionHandler;
+            this.delegate = new ExpressionBasedAnnotationAttributeFactory(expressionHandler);
+        }
+
+        @Override
+        public PreInvocationAttribute createPreInvocationAttribute(String preFilterAttribute, String filterObject, String preAuthorizeAttribute) {
+            PreInvocationAttribute expressionAttribute = delegate.createPreInvocationAttribute(preFilterAttribute, filterObject, preAuthorizeAttribute);
+            Rule rule = UNDECIDED;
+            if (preAuthorizeAttribute != null && !preAuthorizeAttribute.isEmpty()) {
+                SpelNode ast = ((SpelExpression) expressionHandler.getExpressionParser().parseExpression(preAuthorizeAttribute)).getAST();
+                rule = compile(ast);
+            }
+            return new Attribute(expressionAttribute, rule, preFilterAttribute != null && !preFilterAttribute.isEmpty());
+        }
+
+        @Override
+        public PostInvocationAttribute createPostInvocationAttribute(String postFilterAttribute, String postAuthorizeAttribute) {
+            return delegate.createPostInvocationAttribute(postFilterAttribute, postAuthorizeAttribute);
+        }
+    }
+
+    private static class Attribute implements PreInvocationAttribute {
+
+        private final PreInvocationAttribute expressionAttribute;
+
+        private final Rule rule;
+
+        private final boolean filtered;
+
+        Attribute(PreInvocationAttribute expressionAttribute, Rule rule, boolean filtered) {
+            this.expressionAttribute = expressionAttribute;
+            this.rule = rule;
+            this.filtered = filtered;
+        }
+
+        @Override
+        public String getAttribute() {
+            return expressionAttribute.getAttribute();
+        }
+
+        @Override
+        public String toString() {
+            return expressionAttribute.toString();
+        }
+    }
+}
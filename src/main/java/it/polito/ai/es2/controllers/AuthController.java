@@ -1,26 +1,31 @@
 package it.polito.ai.es2.controllers;
 
+import it.polito.ai.es2.components.JwtKeySet;
 import it.polito.ai.es2.components.JwtTokenProvider;
+import it.polito.ai.es2.components.LoginRateLimiter;
 import it.polito.ai.es2.exceptions.EmailNotValidException;
+import it.polito.ai.es2.exceptions.InvalidRefreshTokenException;
+import it.polito.ai.es2.exceptions.PasswordHashingRejectedException;
+import it.polito.ai.es2.services.RefreshTokenService;
 import it.polito.ai.es2.services.UserManagementService;
 import it.polito.ai.es2.utility.JwtRequest;
 import it.polito.ai.es2.utility.JwtResponse;
+import it.polito.ai.es2.utility.RefreshRequest;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.AuthenticationException;
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.validation.Valid;
 import java.io.IOException;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/auth")
@@ -33,35 +38,69 @@ public class AuthController {
     JwtTokenProvider jwtTokenProvider;
 
     @Autowired
-    @Qualifier("userDetailsServiceImpl")
-    UserDetailsService userDetailsService;
+    RefreshTokenService refreshTokenService;
+
+    @Autowired
+    JwtKeySet jwtKeySet;
+
+    @Autowired
+    LoginRateLimiter loginRateLimiter;
 
     @Autowired
     UserManagementService userManagementService;
 
     @PostMapping("/login")
-    public ResponseEntity<JwtResponse> createAuthenticationToken(@RequestBody JwtRequest data) {
+    public ResponseEntity<JwtResponse> createAuthenticationToken(@RequestBody JwtRequest data, HttpServletRequest request) {
+        requireSigningNode();
+        if (!loginRateLimiter.tryAcquire(data.getUsername(), request.getRemoteAddr()))
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many login attempts, retry later!");
         try {
             String username = data.getUsername();
             authenticationManager.authenticate(new UsernamePasswordAuthenticationToken(username, data.getPassword()));
-            String token = jwtTokenProvider.createToken(username,
-                    userDetailsService.loadUserByUsername(username).getAuthorities().stream()
-                            .map(GrantedAuthority::getAuthority)
-                            .collect(Collectors.toList())
-            );
-            return ResponseEntity.ok(new JwtResponse(token));
+            return ResponseEntity.ok(refreshTokenService.login(username));
+        } catch (PasswordHashingRejectedException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
         } catch (AuthenticationException e) {
             throw new BadCredentialsException("Invalid username/password supplied!");
         }
     }
 
+    @PostMapping("/refresh")
+    public ResponseEntity<JwtResponse> refreshAuthenticationToken(@RequestBody @Valid RefreshRequest data) {
+        requireSigningNode();
+        try {
+            return ResponseEntity.ok(refreshTokenService.refresh(data.getRefreshToken()));
+        } catch (InvalidRefreshTokenException e) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, e.getMessage());
+        }
+    }
+
+    @PostMapping("/logout")
+    public ResponseEntity<Void> revokeAuthenticationToken(HttpServletRequest request, @RequestBody(required = false) RefreshRequest data) {
+        String token = jwtTokenProvider.resolveToken(request);
+        if (token == null)
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED);
+        jwtTokenProvider.revokeToken(jwtTokenProvider.validateToken(token));
+        if (data != null && data.getRefreshToken() != null)
+            refreshTokenService.revoke(data.getRefreshToken());
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/jwks")
+    public Map<String, Object> getKeySet() {
+        return jwtKeySet.toJwks();
+    }
+
     @PostMapping("/register")
     public boolean createAuthenticationUser(@RequestPart("id") String id,
                                             @RequestPart("lastName") String lastname,
                                             @RequestPart("firstName") String firstname,
                                             @RequestPart("password") String password,
                                             @RequestPart("email") String email,
-                                            @RequestPart(value = "avatar", required = false) MultipartFile avatar) {
+                                            @RequestPart(value = "avatar", required = false) MultipartFile avatar,
+                                            HttpServletRequest request) {
+        if (!loginRateLimiter.tryAcquire(id, request.getRemoteAddr()))
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many registration attempts, retry later!");
         try {
             userManagementService.addUser(id,
                     lastname,
@@ -72,8 +111,15 @@ public class AuthController {
             return true;
         } catch (EmailNotValidException e) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        } catch (PasswordHashingRejectedException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
         } catch (IOException e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
+
+    private void requireSigningNode() {
+        if (!jwtKeySet.canSign())
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "This node does not issue tokens, route the request to the signing node!");
+    }
 }
@@ -2,10 +2,12 @@ package it.polito.ai.es2.controllers;
 
 import it.polito.ai.es2.HomeworkId;
 import it.polito.ai.es2.dtos.*;
+import it.polito.ai.es2.exceptions.DocumentTooLargeException;
 import it.polito.ai.es2.exceptions.HomeworkCannotBeSubmittedException;
 import it.polito.ai.es2.exceptions.TeamServiceException;
 import it.polito.ai.es2.services.NotificationService;
 import it.polito.ai.es2.services.TeamService;
+import it.polito.ai.es2.storage.GzipDecodingResource;
 import it.polito.ai.es2.utility.VmStatus;
 import lombok.extern.java.Log;
 import org.apache.tika.Tika;
@@ -14,6 +16,8 @@ import org.apache.tika.metadata.Metadata;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -22,16 +26,22 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.springframework.http.HttpHeaders.ACCEPT_ENCODING;
 
 @RestController
 @Log(topic = "CourseController")
@@ -51,6 +61,15 @@ public class CourseController {
                 .collect(Collectors.toList());
     }
 
+    @GetMapping(value = {"", "/"}, params = "limit")
+    CollectionModel<CourseDTO> page(@RequestParam int limit, @RequestParam(required = false) String cursor, @RequestParam(required = false) String sort) {
+        try {
+            return ModelHelper.enrichPage(teamService.getCoursesPage(sort, cursor, limit).map(ModelHelper::enrich));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
     @GetMapping("/{courseId}")
     CourseDTO getOne(@PathVariable Long courseId) {
         return ModelHelper.enrich(teamService.getCourse(courseId)
@@ -108,6 +127,17 @@ public class CourseController {
         }
     }
 
+    @GetMapping(value = "/{courseId}/enrolled", params = "limit")
+    CollectionModel<StudentDTO> enrolledStudentsPage(@PathVariable Long courseId, @RequestParam int limit, @RequestParam(required = false) String cursor, @RequestParam(required = false) String sort) {
+        try {
+            return ModelHelper.enrichPage(teamService.getEnrolledStudentsPage(courseId, sort, cursor, limit).map(ModelHelper::enrich));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (TeamServiceException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
     @PostMapping({"", "/"})
     CourseDTO addCourse(@RequestBody @Valid CourseDTO courseDTO, @AuthenticationPrincipal UserDetails userDetails) {
         try{
@@ -145,19 +175,16 @@ public class CourseController {
     }
 
     @PostMapping("/{courseId}/enrollMany")
-    List<Boolean> enrollStudents(@PathVariable Long courseId, @RequestParam("file") MultipartFile file) {
+    List<EnrollmentResultDTO> enrollStudents(@PathVariable Long courseId, @RequestParam("file") MultipartFile file) {
         Tika tika = new Tika();
         Metadata meta = new Metadata();
         meta.add(Metadata.RESOURCE_NAME_KEY, file.getOriginalFilename());
-        try {
-            String mimeType = tika.detect(file.getInputStream(), meta);
+        try (InputStream inputStream = new BufferedInputStream(file.getInputStream())) {
+            String mimeType = tika.detect(inputStream, meta);
             if (!mimeType.equals("text/csv"))
                 throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, mimeType);
-        } catch (IOException e) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
-        }
 
-        try (Reader reader = new BufferedReader(new InputStreamReader(file.getInputStream()))) {
+            Reader reader = new InputStreamReader(inputStream);
             return teamService.addAndEnroll(reader, courseId);
         } catch (TeamServiceException e) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
@@ -311,6 +338,17 @@ public class CourseController {
         }
     }
 
+    @GetMapping(value = "/{courseId}/teams", params = "limit")
+    CollectionModel<TeamDTO> listTeamsPage(@PathVariable Long courseId, @RequestParam int limit, @RequestParam(required = false) String cursor, @RequestParam(required = false) String sort) {
+        try {
+            return ModelHelper.enrichPage(teamService.getTeamsPageForCourse(courseId, sort, cursor, limit).map(p -> ModelHelper.enrich(courseId, p)));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (TeamServiceException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
     @GetMapping("/{courseId}/availableStudents")
     List<StudentDTO> listFreeStudents(@PathVariable Long courseId){
         try {
@@ -416,6 +454,8 @@ public class CourseController {
                     .expiryDate(new Timestamp(expiryDate))
                     .build();
             return ModelHelper.enrich(courseId, teamService.addAssignment(assignmentDTO, content, courseId));
+        } catch (DocumentTooLargeException e) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, e.getMessage());
         } catch (TeamServiceException e) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
         } catch (NoSuchAlgorithmException | IOException e) {
@@ -433,14 +473,9 @@ public class CourseController {
     }
 
     @GetMapping("/{courseId}/assignment/{assignmentId}/content")
-    ResponseEntity<Resource> getContentOfAssignment(@PathVariable Long courseId, @PathVariable Long assignmentId) {
+    ResponseEntity<Resource> getContentOfAssignment(@PathVariable Long courseId, @PathVariable Long assignmentId, @RequestHeader(value = ACCEPT_ENCODING, required = false) String acceptEncoding) {
         try {
-            DocumentDTO documentDTO = teamService.getDocumentOfAssignment(courseId, assignmentId);
-            return ResponseEntity.ok()
-                    .contentLength(documentDTO.getSize())
-                    .contentType(MediaType.parseMediaType(documentDTO.getMimeType()))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + documentDTO.getName() + "\"")
-                    .body(documentDTO.getContent());
+            return documentResponse(teamService.getDocumentOfAssignment(courseId, assignmentId), acceptEncoding);
         } catch (IOException e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         } catch (TeamServiceException e) {
@@ -460,6 +495,38 @@ public class CourseController {
         }
     }
 
+    /**
+     * Streams the submitted homeworks of the assignment as a single ZIP archive, reading every document
+     * straight from the store into the response.
+     */
+    @GetMapping("/{courseId}/assignment/{assignmentId}/homeworks/content")
+    ResponseEntity<StreamingResponseBody> getContentOfHomeworks(@PathVariable Long courseId, @PathVariable Long assignmentId, @RequestParam(defaultValue = "false") boolean allVersions) {
+        try {
+            List<DocumentDTO> documents = teamService.getHomeworkDocumentsOfAssignment(courseId, assignmentId, allVersions);
+            StreamingResponseBody body = outputStream -> {
+                try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+                    for (DocumentDTO documentDTO : documents) {
+                        ZipEntry zipEntry = new ZipEntry(documentDTO.getName());
+                        zipEntry.setTime(documentDTO.getContent().lastModified());
+                        zipOutputStream.putNextEntry(zipEntry);
+                        try (InputStream inputStream = documentDTO.getContent().getInputStream()) {
+                            inputStream.transferTo(zipOutputStream);
+                        }
+                        zipOutputStream.closeEntry();
+                    }
+                }
+            };
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType("application/zip"))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"assignment-" + assignmentId + ".zip\"")
+                    .body(body);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (TeamServiceException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
     @GetMapping("/{courseId}/assignment/{assignmentId}/homeworks")
     List<HomeworkDTO> listHomeworks(@PathVariable Long courseId, @PathVariable Long assignmentId) {
         try {
@@ -491,6 +558,8 @@ public class CourseController {
             ));
         } catch (HomeworkCannotBeSubmittedException noSubmission) {
             throw new ResponseStatusException(HttpStatus.METHOD_NOT_ALLOWED, "Homework submission has been denied");
+        } catch (DocumentTooLargeException e) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, e.getMessage());
         } catch (TeamServiceException e) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
         } catch (NoSuchAlgorithmException | IOException e) {
@@ -509,6 +578,8 @@ public class CourseController {
                     content,
                     canReSubmit
             ));
+        } catch (DocumentTooLargeException e) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, e.getMessage());
         } catch (TeamServiceException e) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
         } catch (NoSuchAlgorithmException | IOException e) {
@@ -550,18 +621,57 @@ public class CourseController {
     }
 
     @GetMapping("/{courseId}/assignment/{assignmentId}/homework/{studentId}/version/{versionId}/content")
-    ResponseEntity<Resource> getContentOfHomeworkVersion(@PathVariable Long courseId, @PathVariable Long assignmentId, @PathVariable String studentId, @PathVariable Long versionId) {
+    ResponseEntity<Resource> getContentOfHomeworkVersion(@PathVariable Long courseId, @PathVariable Long assignmentId, @PathVariable String studentId, @PathVariable Long versionId, @RequestHeader(value = ACCEPT_ENCODING, required = false) String acceptEncoding) {
         try {
-            DocumentDTO documentDTO = teamService.getDocumentOfHomeworkVersion(courseId, new HomeworkId(assignmentId, studentId), versionId);
-            return ResponseEntity.ok()
-                    .contentLength(documentDTO.getSize())
-                    .contentType(MediaType.parseMediaType(documentDTO.getMimeType()))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + documentDTO.getName() + "\"")
-                    .body(documentDTO.getContent());
+            return documentResponse(teamService.getDocumentOfHomeworkVersion(courseId, new HomeworkId(assignmentId, studentId), versionId), acceptEncoding);
         } catch (IOException e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         } catch (TeamServiceException e) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
         }
     }
+
+    /**
+     * Stored documents never change once written, so the document hash is used as a strong ETag:
+     * conditional requests are answered with 304 and Range requests with 206 by the message converters.
+     * Stores able to serve the bytes themselves get a redirect to their short-lived URL instead.
+     * Compressed documents are sent as stored to clients accepting their encoding and decompressed
+     * on the fly for the others; the two representations get distinct ETags.
+     */
+    private ResponseEntity<Resource> documentResponse(DocumentDTO documentDTO, String acceptEncoding) throws IOException {
+        if (documentDTO.getLocation() != null)
+            return ResponseEntity.status(HttpStatus.FOUND).location(documentDTO.getLocation()).build();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .lastModified(documentDTO.getContent().lastModified())
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .contentType(MediaType.parseMediaType(documentDTO.getMimeType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + documentDTO.getName() + "\"");
+        String encoding = documentDTO.getEncoding();
+        if (encoding == null)
+            return response.eTag(documentDTO.getHash()).body(documentDTO.getContent());
+        response.varyBy(ACCEPT_ENCODING);
+        if (acceptsEncoding(acceptEncoding, encoding))
+            return response.eTag(documentDTO.getHash() + "-" + encoding)
+                    .header(HttpHeaders.CONTENT_ENCODING, encoding)
+                    .body(documentDTO.getContent());
+        return response.eTag(documentDTO.getHash())
+                .body(new GzipDecodingResource(documentDTO.getContent(), documentDTO.getSize()));
+    }
+
+    private static boolean acceptsEncoding(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null)
+            return false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (!parts[0].trim().equalsIgnoreCase(encoding) && !parts[0].trim().equals("*"))
+                continue;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.matches("q=0(\\.0{0,3})?"))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
 }
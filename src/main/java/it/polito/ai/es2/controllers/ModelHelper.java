@@ -1,12 +1,32 @@
 package it.polito.ai.es2.controllers;
 
 import it.polito.ai.es2.dtos.*;
+import it.polito.ai.es2.utility.KeysetPage;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 
 public class ModelHelper {
 
+    /**
+     * Links the neighbouring pages by swapping the cursor in the current request, so limit and sort carry over.
+     */
+    public static <T> CollectionModel<T> enrichPage(KeysetPage<T> page) {
+        CollectionModel<T> collectionModel = CollectionModel.of(page.getContent())
+                .add(Link.of(ServletUriComponentsBuilder.fromCurrentRequest().toUriString()).withSelfRel());
+        if (page.getNext() != null)
+            collectionModel.add(Link.of(ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("cursor", page.getNext()).toUriString(), IanaLinkRelations.NEXT));
+        if (page.getPrevious() != null)
+            collectionModel.add(Link.of(ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("cursor", page.getPrevious()).toUriString(), IanaLinkRelations.PREV));
+        return collectionModel;
+    }
+
     public static CourseDTO enrich(CourseDTO courseDTO) {
         return courseDTO
                 .add(linkTo(CourseController.class).slash(courseDTO.getId()).withSelfRel())
@@ -21,13 +41,15 @@ public class ModelHelper {
         return studentDTO
                 .add(linkTo(StudentController.class).slash(studentDTO.getId()).withSelfRel())
                 .add(linkTo(methodOn(StudentController.class).getStudentcourses(studentDTO.getId())).withRel("courses"))
-                .add(linkTo(methodOn(StudentController.class).getStudentTeams(studentDTO.getId())).withRel("teams"));
+                .add(linkTo(methodOn(StudentController.class).getStudentTeams(studentDTO.getId())).withRel("teams"))
+                .add(linkTo(methodOn(StudentController.class).getAvatar(studentDTO.getId(), null)).withRel("avatar"));
     }
 
     public static TeacherDTO enrich(TeacherDTO teacherDTO) {
         return teacherDTO
                 .add(linkTo(TeacherController.class).slash(teacherDTO.getId()).withSelfRel())
-                .add(linkTo(methodOn(TeacherController.class).getTeachers(teacherDTO.getId())).withRel("courses"));
+                .add(linkTo(methodOn(TeacherController.class).getTeachers(teacherDTO.getId())).withRel("courses"))
+                .add(linkTo(methodOn(TeacherController.class).getAvatar(teacherDTO.getId(), null)).withRel("avatar"));
     }
 
     public static AssignmentDTO enrich(Long courseId, AssignmentDTO assignmentDTO) {
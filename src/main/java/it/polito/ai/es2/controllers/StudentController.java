@@ -1,5 +1,6 @@
 package it.polito.ai.es2.controllers;
 
+import it.polito.ai.es2.dtos.AvatarDTO;
 import it.polito.ai.es2.dtos.CourseDTO;
 import it.polito.ai.es2.dtos.ProposalNotificationDTO;
 import it.polito.ai.es2.dtos.StudentDTO;
@@ -7,8 +8,13 @@ import it.polito.ai.es2.dtos.TeamDTO;
 import it.polito.ai.es2.exceptions.TeamServiceException;
 import it.polito.ai.es2.services.TeamService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
 import javax.validation.Valid;
@@ -30,12 +36,40 @@ public class StudentController {
                 .collect(Collectors.toList());
     }
 
+    @GetMapping(value = {"", "/"}, params = "limit")
+    CollectionModel<StudentDTO> page(@RequestParam int limit, @RequestParam(required = false) String cursor, @RequestParam(required = false) String sort) {
+        try {
+            return ModelHelper.enrichPage(teamService.getStudentsPage(sort, cursor, limit).map(ModelHelper::enrich));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
     @GetMapping("/{id}")
     StudentDTO getOne(@PathVariable String id) {
         return ModelHelper.enrich(teamService.getStudent(id)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.CONFLICT, "Student id '" + id + "' not found!")));
     }
 
+    /**
+     * Avatars are revalidated through their hash, which is checked before the image is loaded.
+     */
+    @GetMapping("/{id}/avatar")
+    ResponseEntity<byte[]> getAvatar(@PathVariable String id, WebRequest request) {
+        try {
+            if (request.checkNotModified(teamService.getAvatarHashOfStudent(id)))
+                return null;
+            AvatarDTO avatarDTO = teamService.getAvatarOfStudent(id);
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .eTag(avatarDTO.getHash())
+                    .contentType(MediaType.IMAGE_PNG)
+                    .body(avatarDTO.getContent());
+        } catch (TeamServiceException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
     @PostMapping({"", "/"})
     StudentDTO addStudent(@RequestBody @Valid StudentDTO studentDTO) {
         if (teamService.addStudent(studentDTO))
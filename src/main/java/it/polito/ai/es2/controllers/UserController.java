@@ -1,13 +1,20 @@
 package it.polito.ai.es2.controllers;
 
+import it.polito.ai.es2.dtos.UserDTO;
+import it.polito.ai.es2.services.UserManagementService;
 import it.polito.ai.es2.utility.UserInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.stream.Collectors;
 
@@ -15,6 +22,18 @@ import java.util.stream.Collectors;
 @RequestMapping("/API/user")
 public class UserController {
 
+    @Autowired
+    UserManagementService userManagementService;
+
+    @GetMapping(value = {"", "/"}, params = "limit")
+    public CollectionModel<UserDTO> page(@RequestParam int limit, @RequestParam(required = false) String cursor, @RequestParam(required = false) String sort) {
+        try {
+            return ModelHelper.enrichPage(userManagementService.getUsersPage(sort, cursor, limit));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
     @GetMapping("/me")
     public ResponseEntity<UserInfo> currentUserInfo(@AuthenticationPrincipal UserDetails userDetails) {
         UserInfo userInfo = UserInfo.builder()
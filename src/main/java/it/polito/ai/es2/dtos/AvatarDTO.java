@@ -0,0 +1,13 @@
+package it.polito.ai.es2.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class AvatarDTO {
+
+    private String hash;
+
+    private byte[] content;
+}
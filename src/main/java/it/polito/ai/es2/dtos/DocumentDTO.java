@@ -2,7 +2,9 @@ package it.polito.ai.es2.dtos;
 
 import lombok.Builder;
 import lombok.Data;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import java.net.URI;
 
 @Data
 @Builder
@@ -16,5 +18,11 @@ public class DocumentDTO {
 
     private long size;
 
-    private ByteArrayResource content;
+    private String hash;
+
+    private String encoding;
+
+    private Resource content;
+
+    private URI location;
 }
@@ -0,0 +1,23 @@
+package it.polito.ai.es2.dtos;
+
+import it.polito.ai.es2.utility.EnrollmentStatus;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of one row of a roster: the row number counts the records after the header, starting from 1.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EnrollmentResultDTO {
+
+    private long row;
+
+    private String studentId;
+
+    private EnrollmentStatus status;
+
+    private String message;
+}
@@ -30,7 +30,4 @@ public class StudentDTO extends RepresentationModel<StudentDTO> {
     @NotBlank
     @CsvBindByName(required = true)
     private String email;
-
-    private byte[] avatar;
-
 }
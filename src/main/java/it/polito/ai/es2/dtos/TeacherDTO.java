@@ -30,6 +30,4 @@ public class TeacherDTO extends RepresentationModel<TeacherDTO> {
     @NotBlank
     @CsvBindByName(required = true)
     private String email;
-
-    private byte[] avatar;
 }
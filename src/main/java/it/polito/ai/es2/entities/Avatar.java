@@ -0,0 +1,43 @@
+package it.polito.ai.es2.entities;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Profile picture of a student or teacher, kept apart from them so that loading a user never loads the image.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+public class Avatar {
+
+    private static final String CONTENT_DIGEST = "SHA-256";
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @Column(nullable = false, length = 100000)
+    private byte[] content;
+
+    @Column(nullable = false)
+    private String hash;
+
+    public Avatar(byte[] content) {
+        this.content = content;
+        this.hash = hashOf(content);
+    }
+
+    public static String hashOf(byte[] content) {
+        try {
+            return String.format("%064x", new BigInteger(1, MessageDigest.getInstance(CONTENT_DIGEST).digest(content)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
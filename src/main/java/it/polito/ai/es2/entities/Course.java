@@ -3,11 +3,14 @@ package it.polito.ai.es2.entities;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
+import org.hibernate.annotations.LazyCollection;
+import org.hibernate.annotations.LazyCollectionOption;
 
 import javax.persistence.*;
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 @Entity
 @Data
@@ -55,10 +58,12 @@ public class Course {
     private int maxRunningVmInstance;
 
     @ManyToMany(mappedBy = "courses")
-    private List<Teacher> teachers = new ArrayList<>();
+    @LazyCollection(LazyCollectionOption.EXTRA)
+    private Set<Teacher> teachers = new HashSet<>();
 
     @ManyToMany(mappedBy = "courses")
-    private List<Student> students = new ArrayList<>();
+    @LazyCollection(LazyCollectionOption.EXTRA)
+    private Set<Student> students = new HashSet<>();
 
     @OneToMany(mappedBy = "course", cascade = CascadeType.REMOVE)
     private List<Team> teams;
@@ -154,11 +159,14 @@ public class Course {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Course course = (Course) o;
-        return Objects.equals(id, course.id);
+        return id != null && Objects.equals(id, course.id);
     }
 
+    /**
+     * The id is only assigned on persist, so the hash must not depend on it for sets to keep working.
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(id);
+        return getClass().hashCode();
     }
 }
@@ -10,6 +10,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 
 @Entity
+@Table(indexes = @Index(columnList = "contentHash"))
 @Data
 public class Document {
 
@@ -26,8 +27,14 @@ public class Document {
     @Column(nullable = false, unique = true)
     private String hash;
 
+    private String contentHash;
+
+    private String encoding;
+
     public static final int RADIX = 16;
 
+    public static final String GZIP_ENCODING = "gzip";
+
     public void setHash() throws NoSuchAlgorithmException {
         String transformedName = this.name +
                 this.mimeType +
@@ -37,4 +44,8 @@ public class Document {
         messageDigest.update(transformedName.getBytes(StandardCharsets.UTF_8));
         this.hash = new BigInteger(1, messageDigest.digest()).toString(RADIX);
     }
+
+    public String getStorageKey() {
+        return this.contentHash != null ? this.contentHash : this.hash;
+    }
 }
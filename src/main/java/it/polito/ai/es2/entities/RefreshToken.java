@@ -0,0 +1,40 @@
+package it.polito.ai.es2.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.sql.Timestamp;
+
+/**
+ * Refresh token handed out at login. Only the SHA-256 digest of the token is stored.
+ * Every rotation marks the token as used and issues its successor in the same family,
+ * so presenting a used token again reveals a stolen token and revokes the whole family.
+ */
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(indexes = {@Index(columnList = "family"), @Index(columnList = "username")})
+public class RefreshToken {
+
+    @Id
+    @Column(length = 64)
+    String id;
+
+    @Column(nullable = false, length = 36)
+    String family;
+
+    @Column(nullable = false)
+    String username;
+
+    @Column(nullable = false)
+    Timestamp expiryDate;
+
+    boolean used;
+}
@@ -1,11 +1,11 @@
 package it.polito.ai.es2.entities;
 
 import lombok.Data;
+import org.hibernate.annotations.LazyCollection;
+import org.hibernate.annotations.LazyCollectionOption;
 
 import javax.persistence.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
 
 
 @Entity
@@ -24,17 +24,22 @@ public class Student {
     @Column(nullable = false)
     private String email;
 
-    @Column(nullable = false, length = 100000)
-    private byte[] avatar;
+    @OneToOne(fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
+    @JoinColumn(name = "avatar_id")
+    private Avatar avatar;
 
-    @OneToOne
+    // Written only by the bulk update of PermissionEvaluatorImpl#membershipsChanged
+    @Column(nullable = false, insertable = false, updatable = false, columnDefinition = "bigint not null default 0")
+    private long membershipVersion;
+
+    @OneToOne(fetch = FetchType.LAZY)
     private User authUser;
 
     @ManyToMany(cascade = {CascadeType.PERSIST, CascadeType.MERGE})
     @JoinTable(name = "student_course",
             joinColumns = @JoinColumn(name = "student_id"),
             inverseJoinColumns = @JoinColumn(name = "course_id"))
-    private List<Course> courses = new ArrayList<>();
+    private Set<Course> courses = new HashSet<>();
 
     @OneToMany(mappedBy = "creator")
     private List<VmInstance> createdVMs = new ArrayList<>();
@@ -43,10 +48,11 @@ public class Student {
     @JoinTable(name = "student_vms",
             joinColumns = @JoinColumn(name = "student_id"),
             inverseJoinColumns = @JoinColumn(name = "vmInstance_id"))
-    private List<VmInstance> ownedVMs = new ArrayList<>();
+    private Set<VmInstance> ownedVMs = new HashSet<>();
 
     @ManyToMany(mappedBy = "members")
-    private List<Team> teams = new ArrayList<>() ;
+    @LazyCollection(LazyCollectionOption.EXTRA)
+    private Set<Team> teams = new HashSet<>();
 
     @OneToMany(mappedBy = "creator")
     private List<ProposalNotification> notificationsCreated = new ArrayList<>();
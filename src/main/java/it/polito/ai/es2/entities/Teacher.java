@@ -3,9 +3,9 @@ package it.polito.ai.es2.entities;
 import lombok.Data;
 
 import javax.persistence.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Objects;
+import java.util.Set;
 
 @Entity
 @Data
@@ -23,10 +23,15 @@ public class Teacher {
     @Column(nullable = false)
     private String email;
 
-    @Column(nullable = false, length = 100000)
-    private byte[] avatar;
+    @OneToOne(fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
+    @JoinColumn(name = "avatar_id")
+    private Avatar avatar;
 
-    @OneToOne
+    // Written only by the bulk update of PermissionEvaluatorImpl#membershipsChanged
+    @Column(nullable = false, insertable = false, updatable = false, columnDefinition = "bigint not null default 0")
+    private long membershipVersion;
+
+    @OneToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "auth_user_id")
     private User authUser;
 
@@ -34,7 +39,7 @@ public class Teacher {
     @JoinTable(name = "teacher_course",
             joinColumns = @JoinColumn(name = "teacher_id"),
             inverseJoinColumns = @JoinColumn(name = "course_id"))
-    private List<Course> courses = new ArrayList<>();
+    private Set<Course> courses = new HashSet<>();
 
     public boolean addCourse(Course course) {
         if (this.courses.contains(course))
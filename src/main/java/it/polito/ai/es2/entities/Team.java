@@ -7,8 +7,7 @@ import it.polito.ai.es2.utility.VmStatus;
 import lombok.*;
 
 import javax.persistence.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 @Entity
 @Data
@@ -53,7 +52,7 @@ public class Team {
     @JoinTable(name = "student_team",
             joinColumns = @JoinColumn(name = "team_id"),
             inverseJoinColumns = @JoinColumn(name = "student_id"))
-    private List<Student> members = new ArrayList<>();
+    private Set<Student> members = new HashSet<>();
 
     @OneToMany(mappedBy = "team", cascade = CascadeType.REMOVE)
     private List<VmInstance> vmInstances = new ArrayList<>();
@@ -142,11 +141,24 @@ public class Team {
         {
             vmInstances.remove(vmInstance);
             vmInstance.getCreator().removeCreatedVm(vmInstance);
-            List<Student> owners = vmInstance.getOwners();
+            Set<Student> owners = vmInstance.getOwners();
             vmInstance.getOwners().stream().forEach(s -> s.removeOwnedVm(vmInstance));
             return true;
         }
         throw new TeamServiceException("Virtual Machine must be suspended");
 
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Team team = (Team) o;
+        return id != null && Objects.equals(id, team.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
 }
@@ -1,9 +1,11 @@
 package it.polito.ai.es2.entities;
 
+import it.polito.ai.es2.components.PasswordCostCalibrator;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.BatchSize;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -36,10 +38,28 @@ public class User implements UserDetails {
     @Column(nullable = false)
     private String password;
 
+    private String passwordAlgorithm;
+
+    private Integer passwordCost;
+
+    // Loaded for a whole page of users in one statement instead of one per user
     @ElementCollection(fetch = FetchType.EAGER)
+    @BatchSize(size = 100)
     @Builder.Default
     private List<String> roles = new ArrayList<>();
 
+    /**
+     * Keeps the algorithm and cost columns in line with the stored hash, whichever way it was set.
+     */
+    @PrePersist
+    @PreUpdate
+    protected void recordPasswordHash() {
+        passwordAlgorithm = null;
+        if (password != null && password.startsWith("{") && password.indexOf('}') > 0)
+            passwordAlgorithm = password.substring(1, password.indexOf('}'));
+        passwordCost = PasswordCostCalibrator.bcryptCost(password);
+    }
+
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
         return this.roles.stream()
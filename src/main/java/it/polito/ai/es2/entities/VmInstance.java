@@ -2,10 +2,13 @@ package it.polito.ai.es2.entities;
 
 import it.polito.ai.es2.utility.VmStatus;
 import lombok.*;
+import org.hibernate.annotations.LazyCollection;
+import org.hibernate.annotations.LazyCollectionOption;
 
 import javax.persistence.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
 
 @Entity
 @Data
@@ -47,7 +50,8 @@ public class VmInstance {
     private Student creator;
 
     @ManyToMany(mappedBy = "ownedVMs")
-    private List<Student> owners = new ArrayList<>();
+    @LazyCollection(LazyCollectionOption.EXTRA)
+    private Set<Student> owners = new HashSet<>();
 
     @ManyToOne()
     @JoinColumn(name = "team_id", nullable = false)
@@ -72,5 +76,16 @@ public class VmInstance {
             return false;
     }
 
-}
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        VmInstance vmInstance = (VmInstance) o;
+        return id != null && Objects.equals(id, vmInstance.id);
+    }
 
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
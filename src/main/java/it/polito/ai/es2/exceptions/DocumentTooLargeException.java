@@ -0,0 +1,11 @@
+package it.polito.ai.es2.exceptions;
+
+public class DocumentTooLargeException extends TeamServiceException {
+    public DocumentTooLargeException() {
+        super("Document exceeds the available upload space!");
+    }
+
+    public DocumentTooLargeException(String message) {
+        super(message);
+    }
+}
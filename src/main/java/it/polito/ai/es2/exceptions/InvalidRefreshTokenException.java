@@ -0,0 +1,11 @@
+package it.polito.ai.es2.exceptions;
+
+public class InvalidRefreshTokenException extends UserManagementServiceException {
+    public InvalidRefreshTokenException() {
+        super("Expired or invalid refresh token!");
+    }
+
+    public InvalidRefreshTokenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package it.polito.ai.es2.exceptions;
+
+public class PasswordHashingRejectedException extends RuntimeException {
+    public PasswordHashingRejectedException() {
+        super("Too many password checks in progress, retry later!");
+    }
+
+    public PasswordHashingRejectedException(String message) {
+        super(message);
+    }
+}
@@ -1,5 +1,6 @@
 package it.polito.ai.es2.filters;
 
+import io.jsonwebtoken.Claims;
 import it.polito.ai.es2.components.JwtTokenProvider;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.Authentication;
@@ -22,8 +23,9 @@ public class JwtTokenFilter extends GenericFilterBean {
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException {
         String token = jwtTokenProvider.resolveToken((HttpServletRequest) servletRequest);
 
-        if (token != null && jwtTokenProvider.validateToken(token)) {
-            Authentication auth = jwtTokenProvider.getAuthentication(token);
+        if (token != null) {
+            Claims claims = jwtTokenProvider.validateToken(token);
+            Authentication auth = jwtTokenProvider.getAuthentication(claims);
             SecurityContextHolder.getContext().setAuthentication(auth);
         }
 
@@ -3,12 +3,81 @@ package it.polito.ai.es2.properties;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
 
 @Component
 @ConfigurationProperties(prefix = "document")
 @Data
 public class DocumentStorageProperty {
 
+    private String store = "filesystem";
+
     private String uploadDirectory;
 
+    private boolean contentAddressed = true;
+
+    private int shardDepth = 2;
+
+    private DataSize maxSize;
+
+    private DataSize courseQuota;
+
+    private Duration gcGracePeriod = Duration.ofHours(1);
+
+    private Compression compression = new Compression();
+
+    private Cache cache = new Cache();
+
+    private S3 s3 = new S3();
+
+    @Data
+    public static class Compression {
+
+        private boolean enabled = false;
+
+        private List<String> mimeTypes = Arrays.asList("text/*", "application/json", "application/xml",
+                "application/javascript", "application/x-sh", "application/sql", "application/rtf",
+                "application/msword", "application/vnd.ms-excel", "application/vnd.ms-powerpoint",
+                "application/x-tar", "image/svg+xml", "image/bmp");
+    }
+
+    @Data
+    public static class Cache {
+
+        private boolean enabled = true;
+
+        private DataSize maxDocumentSize = DataSize.ofMegabytes(4);
+
+        private DataSize maxSize = DataSize.ofMegabytes(256);
+    }
+
+    @Data
+    public static class S3 {
+
+        private String endpoint;
+
+        private String region = "us-east-1";
+
+        private String bucket;
+
+        private String accessKey;
+
+        private String secretKey;
+
+        private boolean pathStyleAccess = false;
+
+        private String keyPrefix = "";
+
+        private boolean presign = true;
+
+        private Duration presignDuration = Duration.ofMinutes(5);
+
+        private DataSize multipartThreshold = DataSize.ofMegabytes(16);
+
+        private DataSize partSize = DataSize.ofMegabytes(8);
+    }
 }
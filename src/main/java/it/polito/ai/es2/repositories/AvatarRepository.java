@@ -0,0 +1,9 @@
+package it.polito.ai.es2.repositories;
+
+import it.polito.ai.es2.entities.Avatar;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface AvatarRepository extends JpaRepository<Avatar, Long> {
+}
@@ -1,5 +1,8 @@
 package it.polito.ai.es2.repositories;
 
+import it.polito.ai.es2.dtos.StudentDTO;
+import it.polito.ai.es2.dtos.TeacherDTO;
+import it.polito.ai.es2.dtos.TeamDTO;
 import it.polito.ai.es2.entities.Course;
 import it.polito.ai.es2.entities.Student;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -18,5 +21,17 @@ public interface CourseRepository extends JpaRepository<Course, Long> {
     @Query("SELECT s FROM Student s INNER JOIN s.courses c WHERE c.id=:courseId AND s NOT IN (SELECT s FROM Student s INNER JOIN s.teams t INNER JOIN t.course c WHERE c.id=:courseId AND t.id IS NOT NULL)")
     List<Student> getStudentsNotInTeams(Long courseId);
 
+    @Query("SELECT new it.polito.ai.es2.dtos.StudentDTO(s.id, s.lastName, s.firstName, s.email) " +
+            "FROM Course c INNER JOIN c.students s WHERE c.id=:courseId ORDER BY s.id")
+    List<StudentDTO> findStudentsOfCourse(Long courseId);
+
+    @Query("SELECT new it.polito.ai.es2.dtos.TeacherDTO(t.id, t.lastName, t.firstName, t.email) " +
+            "FROM Course c INNER JOIN c.teachers t WHERE c.id=:courseId ORDER BY t.id")
+    List<TeacherDTO> findTeachersOfCourse(Long courseId);
+
+    @Query("SELECT new it.polito.ai.es2.dtos.TeamDTO(t.id, t.name, t.status, t.vcpuMAX, t.memoryMAX, t.diskMAX, t.maxVmInstance, t.maxRunningVmInstance) " +
+            "FROM Team t WHERE t.course.id=:courseId ORDER BY t.id")
+    List<TeamDTO> findTeamsOfCourse(Long courseId);
+
 
 }
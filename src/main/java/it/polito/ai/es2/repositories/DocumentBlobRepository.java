@@ -0,0 +1,43 @@
+package it.polito.ai.es2.repositories;
+
+import it.polito.ai.es2.entities.DocumentBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.Optional;
+
+/**
+ * Reference counts are only changed through single statements, which lock the blob row whether or not it existed
+ * before, instead of read-modify-write on the entity.
+ */
+@Repository
+public interface DocumentBlobRepository extends JpaRepository<DocumentBlob, String> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM DocumentBlob b WHERE b.hash=:hash")
+    Optional<DocumentBlob> findForUpdate(String hash);
+
+    @Query("SELECT b.encoding FROM DocumentBlob b WHERE b.hash=:hash")
+    Optional<String> findEncoding(String hash);
+
+    /**
+     * Inserts the blob with one reference or, when it already exists, takes another reference to it.
+     * Returns 1 when the row has been inserted, 2 when an existing row has been updated.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "INSERT INTO document_blob (hash, size, ref_count, encoding) VALUES (:hash, :size, 1, :encoding) " +
+            "ON DUPLICATE KEY UPDATE ref_count = ref_count + 1", nativeQuery = true)
+    int insertOrRetain(String hash, long size, String encoding);
+
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE DocumentBlob b SET b.refCount = b.refCount - 1 WHERE b.hash=:hash")
+    int release(String hash);
+
+    @Modifying
+    @Query("DELETE FROM DocumentBlob b WHERE b.hash=:hash AND b.refCount <= 0")
+    int deleteIfUnreferenced(String hash);
+}
@@ -2,8 +2,17 @@ package it.polito.ai.es2.repositories;
 
 import it.polito.ai.es2.entities.Document;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface DocumentRepository extends JpaRepository<Document, Long> {
+
+    @Query("SELECT COALESCE(SUM(d.size), 0) FROM Assignment a INNER JOIN a.content d WHERE a.course.id=:courseId")
+    long getAssignmentsSizeOfCourse(Long courseId);
+
+    @Query("SELECT COALESCE(SUM(d.size), 0) FROM HomeworkVersion v INNER JOIN v.content d WHERE v.homework.assignment.course.id=:courseId")
+    long getHomeworkVersionsSizeOfCourse(Long courseId);
+
+    boolean existsByHashOrContentHash(String hash, String contentHash);
 }
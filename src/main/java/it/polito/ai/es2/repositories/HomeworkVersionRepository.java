@@ -3,11 +3,39 @@ package it.polito.ai.es2.repositories;
 import it.polito.ai.es2.entities.Homework;
 import it.polito.ai.es2.entities.HomeworkVersion;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface HomeworkVersionRepository extends JpaRepository<HomeworkVersion, Long> {
     List<HomeworkVersion> findAllByHomework(Homework homework);
+
+    @Query("SELECT v.homework.assignment.course.id FROM HomeworkVersion v WHERE v.id=:homeworkVersionId")
+    Optional<Long> findCourseIdById(Long homeworkVersionId);
+
+    @Query("SELECT v.homework.student_id FROM HomeworkVersion v WHERE v.id=:homeworkVersionId")
+    Optional<String> findStudentIdById(Long homeworkVersionId);
+
+    /**
+     * Versions with the given status of all the homeworks of the assignment, with their document, homework and
+     * student, latest first within each homework.
+     */
+    @Query("SELECT v FROM HomeworkVersion v JOIN FETCH v.content JOIN FETCH v.homework h JOIN FETCH h.student JOIN FETCH h.assignment " +
+            "WHERE h.assignment_id=:assignmentId AND v.versionStatus=:status " +
+            "ORDER BY h.student_id, v.timestamp DESC, v.id DESC")
+    List<HomeworkVersion> findAllOfAssignment(Long assignmentId, Homework.homeworkStatus status);
+
+    /**
+     * As {@link #findAllOfAssignment}, keeping only the latest version of each homework; versions with the same
+     * timestamp are told apart by their id.
+     */
+    @Query("SELECT v FROM HomeworkVersion v JOIN FETCH v.content JOIN FETCH v.homework h JOIN FETCH h.student JOIN FETCH h.assignment " +
+            "WHERE h.assignment_id=:assignmentId AND v.versionStatus=:status AND NOT EXISTS (" +
+            "SELECT l FROM HomeworkVersion l WHERE l.homework=h AND l.versionStatus=:status " +
+            "AND (l.timestamp > v.timestamp OR (l.timestamp = v.timestamp AND l.id > v.id))) " +
+            "ORDER BY h.student_id")
+    List<HomeworkVersion> findLatestOfAssignment(Long assignmentId, Homework.homeworkStatus status);
 }
@@ -0,0 +1,171 @@
+package it.polito.ai.es2.repositories;
+
+import it.polito.ai.es2.utility.KeysetPage;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.*;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Reads listings one page at a time by seeking past the last row seen, ordered by an optional (non-null)
+ * sort attribute and then by the primary key. Unlike offsets, the cost of a page does not grow with its
+ * position and rows inserted meanwhile are neither skipped nor repeated.
+ * Cursors are opaque to clients: they carry the key of the row to seek from, the direction and the sort.
+ */
+@Repository
+public class KeysetPaginator {
+
+    public static final int MAX_LIMIT = 100;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public <E> KeysetPage<E> findPage(Class<E> entityClass, Specification<E> specification, String sortAttribute, String cursor, int limit) {
+        EntityType<E> entityType = entityManager.getMetamodel().entity(entityClass);
+        String idAttribute = entityType.getSingularAttributes().stream()
+                .filter(SingularAttribute::isId)
+                .map(SingularAttribute::getName)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(entityClass.getSimpleName() + " has no single id attribute"));
+        Cursor position = cursor != null ? Cursor.decode(cursor, sortAttribute) : null;
+        boolean backward = position != null && position.backward;
+        int size = Math.max(1, Math.min(limit, MAX_LIMIT));
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<E> query = cb.createQuery(entityClass);
+        Root<E> root = query.from(entityClass);
+        List<Path<Comparable<Object>>> keys = new ArrayList<>();
+        if (sortAttribute != null)
+            keys.add(root.get(sortAttribute));
+        keys.add(root.get(idAttribute));
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (specification != null) {
+            Predicate predicate = specification.toPredicate(root, query, cb);
+            if (predicate != null)
+                predicates.add(predicate);
+        }
+        if (position != null)
+            predicates.add(seek(cb, keys, position));
+        query.select(root)
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(keys.stream().map(key -> backward ? cb.desc(key) : cb.asc(key)).collect(Collectors.toList()));
+
+        List<E> rows = new ArrayList<>(entityManager.createQuery(query).setMaxResults(size + 1).getResultList());
+        boolean more = rows.size() > size;
+        if (more)
+            rows.remove(size);
+        if (backward)
+            Collections.reverse(rows);
+        if (rows.isEmpty())
+            return new KeysetPage<>(rows, null, null);
+
+        boolean hasNext = backward || more;
+        boolean hasPrevious = backward ? more : position != null;
+        return new KeysetPage<>(rows,
+                hasNext ? cursorOf(rows.get(rows.size() - 1), sortAttribute, false) : null,
+                hasPrevious ? cursorOf(rows.get(0), sortAttribute, true) : null);
+    }
+
+    /**
+     * (k1, ..., kn) > (v1, ..., vn) in lexicographic order, or < when going backward.
+     */
+    private Predicate seek(CriteriaBuilder cb, List<Path<Comparable<Object>>> keys, Cursor position) {
+        List<Comparable<Object>> values = new ArrayList<>();
+        if (keys.size() > 1)
+            values.add(convert(position.sortValue, keys.get(0)));
+        values.add(convert(position.id, keys.get(keys.size() - 1)));
+
+        List<Predicate> alternatives = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            List<Predicate> conjuncts = new ArrayList<>();
+            for (int j = 0; j < i; j++)
+                conjuncts.add(cb.equal(keys.get(j), values.get(j)));
+            conjuncts.add(position.backward
+                    ? cb.lessThan(keys.get(i), values.get(i))
+                    : cb.greaterThan(keys.get(i), values.get(i)));
+            alternatives.add(cb.and(conjuncts.toArray(new Predicate[0])));
+        }
+        return cb.or(alternatives.toArray(new Predicate[0]));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object> convert(String value, Path<?> key) {
+        try {
+            return (Comparable<Object>) DefaultConversionService.getSharedInstance().convert(value, key.getJavaType());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor!", e);
+        }
+    }
+
+    private String cursorOf(Object row, String sortAttribute, boolean backward) {
+        Object id = entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(row);
+        String sortValue = sortAttribute != null
+                ? Objects.toString(PropertyAccessorFactory.forBeanPropertyAccess(row).getPropertyValue(sortAttribute))
+                : null;
+        return new Cursor(sortAttribute, sortValue, id.toString(), backward).encode();
+    }
+
+    private static class Cursor {
+
+        private final String sortAttribute;
+
+        private final String sortValue;
+
+        private final String id;
+
+        private final boolean backward;
+
+        Cursor(String sortAttribute, String sortValue, String id, boolean backward) {
+            this.sortAttribute = sortAttribute;
+            this.sortValue = sortValue;
+            this.id = id;
+            this.backward = backward;
+        }
+
+        String encode() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeBoolean(backward);
+                out.writeUTF(sortAttribute != null ? sortAttribute : "");
+                out.writeUTF(sortValue != null ? sortValue : "");
+                out.writeUTF(id);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        }
+
+        /**
+         * Cursors only make sense for the order they were taken from, so a cursor of another sort is refused.
+         */
+        static Cursor decode(String cursor, String expectedSortAttribute) {
+            Cursor decoded;
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor.getBytes(StandardCharsets.US_ASCII))))) {
+                boolean backward = in.readBoolean();
+                String sortAttribute = in.readUTF();
+                String sortValue = in.readUTF();
+                decoded = new Cursor(sortAttribute.isEmpty() ? null : sortAttribute, sortValue, in.readUTF(), backward);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid cursor!", e);
+            }
+            if (!Objects.equals(decoded.sortAttribute, expectedSortAttribute))
+                throw new IllegalArgumentException("Cursor does not match the requested sort!");
+            return decoded;
+        }
+    }
+}
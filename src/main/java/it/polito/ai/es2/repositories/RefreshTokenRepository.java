@@ -0,0 +1,32 @@
+package it.polito.ai.es2.repositories;
+
+import it.polito.ai.es2.entities.RefreshToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.sql.Timestamp;
+import java.util.Optional;
+
+@Repository
+public interface RefreshTokenRepository extends JpaRepository<RefreshToken, String> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT r FROM RefreshToken r WHERE r.id=:id")
+    Optional<RefreshToken> findForUpdate(String id);
+
+    @Modifying
+    @Query("DELETE FROM RefreshToken r WHERE r.family=:family")
+    int deleteAllByFamily(String family);
+
+    @Modifying
+    @Query("DELETE FROM RefreshToken r WHERE r.username=:username")
+    int deleteAllByUsername(String username);
+
+    @Modifying
+    @Query("DELETE FROM RefreshToken r WHERE r.expiryDate<:t")
+    int deleteAllByExpiryDateBefore(Timestamp t);
+}
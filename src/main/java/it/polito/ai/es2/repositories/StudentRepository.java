@@ -1,9 +1,41 @@
 package it.polito.ai.es2.repositories;
 
+import it.polito.ai.es2.dtos.AvatarDTO;
 import it.polito.ai.es2.entities.Student;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface StudentRepository extends JpaRepository<Student, String> {
+
+    @Query("SELECT COUNT(c) > 0 FROM Student s INNER JOIN s.courses c WHERE s.id=:studentId AND c.id=:courseId")
+    boolean isEnrolledInCourse(String studentId, Long courseId);
+
+    @Query("SELECT c.id FROM Student s INNER JOIN s.courses c WHERE s.id=:studentId")
+    List<Long> findCourseIds(String studentId);
+
+    @Query("SELECT s.membershipVersion FROM Student s WHERE s.id=:studentId")
+    Optional<Long> findMembershipVersion(String studentId);
+
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE Student s SET s.membershipVersion = s.membershipVersion + 1 WHERE s.id IN :studentIds")
+    int incrementMembershipVersions(Collection<String> studentIds);
+
+    @Query("SELECT s.id FROM Student s WHERE s.id IN :studentIds")
+    List<String> findExistingIds(Collection<String> studentIds);
+
+    @Query("SELECT s.id FROM Student s INNER JOIN s.courses c WHERE c.id=:courseId AND s.id IN :studentIds")
+    List<String> findEnrolledIds(Long courseId, Collection<String> studentIds);
+
+    @Query("SELECT a.hash FROM Student s INNER JOIN s.avatar a WHERE s.id=:studentId")
+    Optional<String> findAvatarHash(String studentId);
+
+    @Query("SELECT new it.polito.ai.es2.dtos.AvatarDTO(a.hash, a.content) FROM Student s INNER JOIN s.avatar a WHERE s.id=:studentId")
+    Optional<AvatarDTO> findAvatar(String studentId);
 }
@@ -1,9 +1,40 @@
 package it.polito.ai.es2.repositories;
 
+import it.polito.ai.es2.dtos.CourseDTO;
+import it.polito.ai.es2.dtos.AvatarDTO;
 import it.polito.ai.es2.entities.Teacher;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface TeacherRepository extends JpaRepository<Teacher, String> {
+
+    @Query("SELECT COUNT(c) > 0 FROM Teacher t INNER JOIN t.courses c WHERE t.id=:teacherId AND c.id=:courseId")
+    boolean hasCourse(String teacherId, Long courseId);
+
+    @Query("SELECT c.id FROM Teacher t INNER JOIN t.courses c WHERE t.id=:teacherId")
+    List<Long> findCourseIds(String teacherId);
+
+    @Query("SELECT t.membershipVersion FROM Teacher t WHERE t.id=:teacherId")
+    Optional<Long> findMembershipVersion(String teacherId);
+
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE Teacher t SET t.membershipVersion = t.membershipVersion + 1 WHERE t.id IN :teacherIds")
+    int incrementMembershipVersions(Collection<String> teacherIds);
+
+    @Query("SELECT a.hash FROM Teacher t INNER JOIN t.avatar a WHERE t.id=:teacherId")
+    Optional<String> findAvatarHash(String teacherId);
+
+    @Query("SELECT new it.polito.ai.es2.dtos.AvatarDTO(a.hash, a.content) FROM Teacher t INNER JOIN t.avatar a WHERE t.id=:teacherId")
+    Optional<AvatarDTO> findAvatar(String teacherId);
+
+    @Query("SELECT new it.polito.ai.es2.dtos.CourseDTO(c.id, c.name, c.acronym, c.min, c.max, c.vcpu, c.disk, c.memory, c.maxVmInstance, c.maxRunningVmInstance, c.enabled) " +
+            "FROM Teacher t INNER JOIN t.courses c WHERE t.id=:teacherId ORDER BY c.id")
+    List<CourseDTO> findCoursesOfTeacher(String teacherId);
 }
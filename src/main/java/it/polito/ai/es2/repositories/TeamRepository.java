@@ -2,10 +2,15 @@ package it.polito.ai.es2.repositories;
 
 import it.polito.ai.es2.entities.Team;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
+import java.util.Optional;
 
 
 public interface TeamRepository extends JpaRepository<Team, Long> {
     List<Team> getTeamsByNameAndCourse_Id(String name, Long courseId);
+
+    @Query("SELECT t.course.id FROM Team t WHERE t.id=:teamId")
+    Optional<Long> findCourseIdById(Long teamId);
  }
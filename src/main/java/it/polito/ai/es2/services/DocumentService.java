@@ -1,17 +1,27 @@
 package it.polito.ai.es2.services;
 
 import it.polito.ai.es2.entities.Document;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.net.URI;
 import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
 
 public interface DocumentService {
 
-    Document addDocument(MultipartFile multipartFile) throws NoSuchAlgorithmException, IOException;
+    Document addDocument(MultipartFile multipartFile, Long courseId) throws NoSuchAlgorithmException, IOException;
 
-    void removeDocument(Document document) throws IOException;
+    void removeDocument(Document document);
 
-    ByteArrayResource getDocumentContent(Document document) throws IOException;
+    Resource getDocumentContent(Document document) throws IOException;
+
+    Resource getStoredContent(Document document) throws IOException;
+
+    Resource getUncachedDocumentContent(Document document) throws IOException;
+
+    Optional<URI> getDocumentLocation(Document document);
+
+    int migrateStorageLayout() throws IOException;
 }
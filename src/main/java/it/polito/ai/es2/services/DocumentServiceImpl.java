@@ -1,70 +1,255 @@
 package it.polito.ai.es2.services;
 
+import it.polito.ai.es2.components.DocumentCleaner;
 import it.polito.ai.es2.entities.Document;
+import it.polito.ai.es2.exceptions.DocumentTooLargeException;
 import it.polito.ai.es2.properties.DocumentStorageProperty;
+import it.polito.ai.es2.repositories.DocumentBlobRepository;
 import it.polito.ai.es2.repositories.DocumentRepository;
+import it.polito.ai.es2.storage.DocumentContentCache;
+import it.polito.ai.es2.storage.DocumentStore;
+import it.polito.ai.es2.storage.GzipDecodingResource;
+import org.apache.tika.Tika;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.transaction.Transactional;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 @Service
 @Transactional
 public class DocumentServiceImpl implements DocumentService {
 
+    private static final String CONTENT_DIGEST = "SHA-256";
+
+    private static final int BUFFER_SIZE = 8192;
+
     @Autowired
     private DocumentRepository documentRepo;
 
-    private final Path docStorageLocation;
+    @Autowired
+    private DocumentBlobRepository blobRepo;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    @Autowired
+    private DocumentCleaner documentCleaner;
+
+    @Autowired
+    private DocumentContentCache documentContentCache;
+
+    private final Tika tika = new Tika();
+
+    private final boolean contentAddressed;
+
+    private final boolean compressionEnabled;
+
+    private final List<MimeType> compressibleMimeTypes;
+
+    private final DataSize maxSize;
+
+    private final DataSize courseQuota;
 
     @Autowired
-    public DocumentServiceImpl(DocumentStorageProperty documentStorageProperty) throws IOException {
-        this.docStorageLocation = Paths.get(documentStorageProperty.getUploadDirectory())
-                .toAbsolutePath().normalize();
-        Files.createDirectories(this.docStorageLocation);
+    public DocumentServiceImpl(DocumentStorageProperty documentStorageProperty) {
+        this.contentAddressed = documentStorageProperty.isContentAddressed();
+        this.compressionEnabled = documentStorageProperty.getCompression().isEnabled();
+        this.compressibleMimeTypes = documentStorageProperty.getCompression().getMimeTypes().stream()
+                .map(MimeTypeUtils::parseMimeType).collect(Collectors.toList());
+        this.maxSize = documentStorageProperty.getMaxSize();
+        this.courseQuota = documentStorageProperty.getCourseQuota();
     }
 
+    /**
+     * Reads the upload exactly once: the MIME type is detected from the buffered head of the stream,
+     * the digest and the size limit are applied while the bytes are copied (and, for compressible types,
+     * gzipped) to a temporary file, and the file is then handed over to the document store.
+     * Digest and size always refer to the original bytes.
+     */
     @Override
-    public Document addDocument(MultipartFile multipartFile) throws NoSuchAlgorithmException, IOException {
-        Document document = new Document();
-        document.setName(multipartFile.getOriginalFilename());
-        document.setMimeType(multipartFile.getContentType());
-        document.setSize(multipartFile.getSize());
-        document.setHash();
-        storeDocument(multipartFile, document.getHash());
-        documentRepo.save(document);
-        return document;
+    public Document addDocument(MultipartFile multipartFile, Long courseId) throws NoSuchAlgorithmException, IOException {
+        MessageDigest messageDigest = MessageDigest.getInstance(CONTENT_DIGEST);
+        Metadata metadata = new Metadata();
+        metadata.add(Metadata.RESOURCE_NAME_KEY, multipartFile.getOriginalFilename());
+
+        Path tempLocation = documentStore.createTempFile();
+        try {
+            Document document = new Document();
+            document.setName(multipartFile.getOriginalFilename());
+            try (InputStream inputStream = new BufferedInputStream(new LimitedInputStream(
+                    new DigestInputStream(multipartFile.getInputStream(), messageDigest), uploadLimit(courseId)))) {
+                document.setMimeType(detectMimeType(inputStream, metadata, multipartFile.getContentType()));
+                if (isCompressible(document.getMimeType()))
+                    document.setEncoding(Document.GZIP_ENCODING);
+                try (OutputStream outputStream = openTempFile(tempLocation, document.getEncoding())) {
+                    document.setSize(inputStream.transferTo(outputStream));
+                }
+            }
+            document.setHash();
+
+            if (contentAddressed) {
+                document.setContentHash(String.format("%064x", new BigInteger(1, messageDigest.digest())));
+                storeBlob(tempLocation, document);
+            } else
+                documentStore.store(document.getHash(), tempLocation);
+
+            documentRepo.save(document);
+            return document;
+        } finally {
+            Files.deleteIfExists(tempLocation);
+        }
     }
 
+    /**
+     * Only drops the database references: the stored bytes are deleted by the {@link DocumentCleaner}
+     * once the transaction has committed, so a rollback never leaves rows pointing to missing files.
+     */
     @Override
-    public void removeDocument(Document document) throws IOException {
-        deleteDocument(document.getHash());
+    public void removeDocument(Document document) {
+        if (document.getContentHash() == null) {
+            documentCleaner.deleteAfterCommit(document.getHash());
+            return;
+        }
+        String contentHash = document.getContentHash();
+        if (blobRepo.release(contentHash) == 0 || blobRepo.deleteIfUnreferenced(contentHash) > 0)
+            documentCleaner.deleteAfterCommit(contentHash);
     }
 
     @Override
-    public ByteArrayResource getDocumentContent(Document document) throws IOException {
-        return new ByteArrayResource(readDocument(document.getHash()));
+    public Resource getDocumentContent(Document document) throws IOException {
+        return decode(getStoredContent(document), document);
     }
 
-    private void storeDocument(MultipartFile file, String hash) throws IOException {
-        Path targetLocation = this.docStorageLocation.resolve(hash);
-        Files.copy(file.getInputStream(), targetLocation);
+    /**
+     * Reads straight from the document store, for bulk reads such as exports: going through the cache
+     * they would fill it with documents read once and evict the hot ones it is there for.
+     */
+    @Override
+    public Resource getUncachedDocumentContent(Document document) throws IOException {
+        return decode(documentStore.load(document.getStorageKey()), document);
     }
 
-    private void deleteDocument(String hash) throws IOException {
-        Path targetLocation = this.docStorageLocation.resolve(hash);
-        Files.delete(targetLocation);
+    @Override
+    public Resource getStoredContent(Document document) throws IOException {
+        return documentContentCache.get(document.getStorageKey(), documentStore);
     }
 
-    private byte[] readDocument(String hash) throws IOException {
-        Path targetLocation = this.docStorageLocation.resolve(hash);
-        return Files.readAllBytes(targetLocation);
+    @Override
+    public Optional<URI> getDocumentLocation(Document document) {
+        return documentStore.getLocation(document.getStorageKey(), document.getName(), document.getMimeType(), document.getEncoding());
+    }
+
+    @Override
+    public int migrateStorageLayout() throws IOException {
+        return documentStore.migrateLayout();
+    }
+
+    private static Resource decode(Resource storedContent, Document document) {
+        if (Document.GZIP_ENCODING.equals(document.getEncoding()))
+            return new GzipDecodingResource(storedContent, document.getSize());
+        return storedContent;
+    }
+
+    private String detectMimeType(InputStream inputStream, Metadata metadata, String declaredMimeType) throws IOException {
+        String mimeType = tika.detect(inputStream, metadata);
+        if (mimeType.equals(MediaType.OCTET_STREAM.toString()) && declaredMimeType != null)
+            return declaredMimeType;
+        return mimeType;
+    }
+
+    private boolean isCompressible(String mimeType) {
+        if (!compressionEnabled)
+            return false;
+        MimeType detected = MimeTypeUtils.parseMimeType(mimeType);
+        return compressibleMimeTypes.stream().anyMatch(compressible -> compressible.includes(detected));
+    }
+
+    private OutputStream openTempFile(Path tempLocation, String encoding) throws IOException {
+        OutputStream outputStream = Files.newOutputStream(tempLocation);
+        if (Document.GZIP_ENCODING.equals(encoding))
+            return new GZIPOutputStream(outputStream, BUFFER_SIZE);
+        return outputStream;
+    }
+
+    private long uploadLimit(Long courseId) {
+        long limit = maxSize != null ? maxSize.toBytes() : Long.MAX_VALUE;
+        if (courseQuota != null && courseId != null) {
+            long used = documentRepo.getAssignmentsSizeOfCourse(courseId) + documentRepo.getHomeworkVersionsSizeOfCourse(courseId);
+            limit = Math.min(limit, courseQuota.toBytes() - used);
+        }
+        if (limit <= 0)
+            throw new DocumentTooLargeException("Storage quota of course '" + courseId + "' exhausted!");
+        return limit;
+    }
+
+    /**
+     * Stores the upload under its content hash or, when an identical blob is already stored,
+     * drops the copy and takes another reference to the existing one.
+     * The blob row is written before the bytes, so concurrent uploads of the same content serialize on it
+     * instead of colliding on its key at commit, and the cleaner never sees the bytes without their row.
+     */
+    private void storeBlob(Path tempLocation, Document document) throws IOException {
+        String contentHash = document.getContentHash();
+        if (blobRepo.insertOrRetain(contentHash, document.getSize(), document.getEncoding()) == 1)
+            // Replaces the bytes of a blob released earlier whose deletion may still be pending
+            documentStore.store(contentHash, tempLocation);
+        else
+            // The bytes already stored win, together with the encoding they were stored with
+            blobRepo.findEncoding(contentHash).ifPresent(document::setEncoding);
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                consume(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                consume(n);
+            return n;
+        }
+
+        private void consume(long n) {
+            remaining -= n;
+            if (remaining < 0)
+                throw new DocumentTooLargeException();
+        }
     }
 }
@@ -1,15 +1,40 @@
 package it.polito.ai.es2.services;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import it.polito.ai.es2.HomeworkId;
-import it.polito.ai.es2.entities.*;
 import it.polito.ai.es2.repositories.*;
+import it.polito.ai.es2.utility.MembershipClaims;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.transaction.Transactional;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
-
+/**
+ * Answers the permission checks of the @PreAuthorize expressions with single-row queries instead of loading
+ * entities and their collections. The course of a team, assignment or homework version never changes, so it is
+ * cached; memberships are cached only once granted and only for a short time, so that new enrollments apply
+ * at once and removals at most after the TTL, or immediately through {@link #membershipsChanged(String)}.
+ * Memberships carried by the access token are used next, while current: every membership change bumps the version
+ * stamp stored with the student or teacher in its own transaction, so a change made on any node makes the tokens
+ * issued before it stale on all of them. The stamp itself is cached for a few seconds, so a change made on another
+ * node reaches this one at most after that TTL, and one made here at once.
+ */
 @Component(value="permissionEvaluator")
 @Transactional
 public class PermissionEvaluatorImpl implements PermissionEvaluator {
@@ -17,8 +42,6 @@ public class PermissionEvaluatorImpl implements PermissionEvaluator {
     @Autowired
     TeacherRepository professorRepository;
     @Autowired
-    CourseRepository courseRepository;
-    @Autowired
     StudentRepository studentRepository;
     @Autowired
     TeamRepository teamRepository;
@@ -29,94 +52,165 @@ public class PermissionEvaluatorImpl implements PermissionEvaluator {
     @Autowired
     HomeworkVersionRepository homeworkVersionRepository;
 
+    @Value("${security.permission-cache.maximum-size:10000}")
+    private long maximumSize;
+
+    @Value("${security.permission-cache.expire-after-write:30s}")
+    private Duration expireAfterWrite;
+
+    @Value("${security.permission-cache.membership-version.expire-after-write:5s}")
+    private Duration membershipVersionExpireAfterWrite;
+
+    private Cache<String, Boolean> memberships;
+
+    private Cache<String, Optional<Long>> membershipVersions;
+
+    private Cache<Long, Optional<Long>> courseOfTeam;
+
+    private Cache<Long, Optional<Long>> courseOfAssignment;
+
+    private Cache<Long, Optional<Long>> courseOfHomeworkVersion;
+
+    private Cache<Long, Optional<String>> studentOfHomeworkVersion;
+
+    @PostConstruct
+    protected void init() {
+        memberships = Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(expireAfterWrite).build();
+        membershipVersions = Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(membershipVersionExpireAfterWrite).build();
+        courseOfTeam = Caffeine.newBuilder().maximumSize(maximumSize).build();
+        courseOfAssignment = Caffeine.newBuilder().maximumSize(maximumSize).build();
+        courseOfHomeworkVersion = Caffeine.newBuilder().maximumSize(maximumSize).build();
+        studentOfHomeworkVersion = Caffeine.newBuilder().maximumSize(maximumSize).build();
+    }
+
     @Override
     public boolean teacherHasCourse(String teacherId, Long course) {
-        Optional<Teacher> teacherOptional = professorRepository.findById(teacherId);
-        Optional<Course> courseOptional = courseRepository.findById(course);
-        if (teacherOptional.isPresent() && courseOptional.isPresent()){
-            return teacherOptional.get().getCourses().contains(courseOptional.get());
-        }
-        return false;
+        return isMember("teacher:" + teacherId + ":" + course,
+                () -> tokenMembership(teacherId, course, professorRepository::findMembershipVersion),
+                () -> professorRepository.hasCourse(teacherId, course));
     }
 
     @Override
     public boolean teacherHasCourseOfTeam(String teacherId, Long teamId) {
-        Optional<Teacher> teacherOptional = professorRepository.findById(teacherId);
-        Optional<Team> teamOptional = teamRepository.findById(teamId);
-        if (teacherOptional.isPresent() && teamOptional.isPresent()){
-            return teacherOptional.get().getCourses().contains(teamOptional.get().getCourse());
-        }
-        return false;
+        return lookup(courseOfTeam, teamId, teamRepository::findCourseIdById)
+                .map(courseId -> teacherHasCourse(teacherId, courseId))
+                .orElse(false);
     }
 
     @Override
     public boolean teacherHasCourseOfAssignment(String teacherId, Long assignmentId) {
-        Optional<Teacher> teacherOptional = professorRepository.findById(teacherId);
-        Optional<Assignment> assignmentOptional = assignmentRepository.findById(assignmentId);
-        if (teacherOptional.isPresent() && assignmentOptional.isPresent()) {
-            return teacherOptional.get().getCourses().contains(assignmentOptional.get().getCourse());
-        }
-        return false;
+        return lookup(courseOfAssignment, assignmentId, assignmentRepository::findCourseIdById)
+                .map(courseId -> teacherHasCourse(teacherId, courseId))
+                .orElse(false);
     }
 
     @Override
     public boolean teacherHasCourseOfHomeworkVersion(String teacherId, Long homeworkVersionId) {
-        Optional<Teacher> teacherOptional = professorRepository.findById(teacherId);
-        Optional<HomeworkVersion> homeworkVersionOptional = homeworkVersionRepository.findById(homeworkVersionId);
-        if (teacherOptional.isPresent() && homeworkVersionOptional.isPresent()) {
-            return teacherOptional.get().getCourses().contains(homeworkVersionOptional.get().getHomework().getAssignment().getCourse());
-        }
-        return false;
+        return lookup(courseOfHomeworkVersion, homeworkVersionId, homeworkVersionRepository::findCourseIdById)
+                .map(courseId -> teacherHasCourse(teacherId, courseId))
+                .orElse(false);
     }
 
     @Override
     public boolean studentEnrolledInCourse(String studentId, Long course) {
-        Optional<Student> studentOptional = studentRepository.findById(studentId);
-        Optional<Course> courseOptional = courseRepository.findById(course);
-        if (studentOptional.isPresent() && courseOptional.isPresent()){
-            return studentOptional.get().getCourses().contains(courseOptional.get());
-        }
-        return false;
+        return isMember("student:" + studentId + ":" + course,
+                () -> tokenMembership(studentId, course, studentRepository::findMembershipVersion),
+                () -> studentRepository.isEnrolledInCourse(studentId, course));
     }
 
     @Override
     public boolean studentEnrolledInCourseOfTeam(String studentId, Long teamId) {
-        Optional<Student> studentOptional = studentRepository.findById(studentId);
-        Optional<Team> teamOptional = teamRepository.findById(teamId);
-        if (studentOptional.isPresent() && teamOptional.isPresent()){
-            return studentOptional.get().getCourses().contains(teamOptional.get().getCourse());
-        }
-        return false;
+        return lookup(courseOfTeam, teamId, teamRepository::findCourseIdById)
+                .map(courseId -> studentEnrolledInCourse(studentId, courseId))
+                .orElse(false);
     }
 
     @Override
     public boolean studentEnrolledInCourseOfAssignment(String studentId, Long assignmentId) {
-        Optional<Student> studentOptional = studentRepository.findById(studentId);
-        Optional<Assignment> assignmentOptional = assignmentRepository.findById(assignmentId);
-        if (studentOptional.isPresent() && assignmentOptional.isPresent()) {
-            return studentOptional.get().getCourses().contains(assignmentOptional.get().getCourse());
-        }
-        return false;
+        return lookup(courseOfAssignment, assignmentId, assignmentRepository::findCourseIdById)
+                .map(courseId -> studentEnrolledInCourse(studentId, courseId))
+                .orElse(false);
     }
 
     @Override
     public boolean studentHasHomework(String studentId, HomeworkId homeworkId) {
-        Optional<Student> studentOptional = studentRepository.findById(studentId);
-        Optional<Homework> homeworkOptional = homeworkRepository.findById(homeworkId);
-        if (studentOptional.isPresent() && homeworkOptional.isPresent()) {
-            return studentOptional.get().getHomeworks().contains(homeworkOptional.get());
-        }
-        return false;
+        // The homework id embeds its student
+        return studentId.equals(homeworkId.getStudent_id()) && homeworkRepository.existsById(homeworkId);
     }
 
     @Override
     public boolean studentHasHomeworkVersion(String studentId, Long homeworkVersionId) {
-        Optional<Student> studentOptional = studentRepository.findById(studentId);
-        Optional<HomeworkVersion> homeworkVersionOptional = homeworkVersionRepository.findById(homeworkVersionId);
-        if (studentOptional.isPresent() && homeworkVersionOptional.isPresent()) {
-            return studentOptional.get().getHomeworks().contains(homeworkVersionOptional.get().getHomework());
-        }
-        return false;
+        return lookup(studentOfHomeworkVersion, homeworkVersionId, homeworkVersionRepository::findStudentIdById)
+                .map(studentId::equals)
+                .orElse(false);
+    }
+
+    /**
+     * Bumps the membership version of the user, in the database so that it commits with the change, and invalidates
+     * what this node cached about its memberships now and, within a transaction, again once it commits,
+     * so that nothing read in between survives the change.
+     */
+    public void membershipsChanged(String userId) {
+        membershipsChanged(Collections.singleton(userId));
+    }
+
+    /**
+     * Bulk variant for imports, sweeping the membership cache once for all the users.
+     */
+    public void membershipsChanged(Collection<String> userIds) {
+        Set<String> changed = new HashSet<>(userIds);
+        // Student and teacher ids do not overlap: each update only matches its own users
+        studentRepository.incrementMembershipVersions(changed);
+        professorRepository.incrementMembershipVersions(changed);
+        invalidateMemberships(changed);
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidateMemberships(changed);
+                }
+            });
+    }
+
+    private void invalidateMemberships(Set<String> userIds) {
+        membershipVersions.invalidateAll(userIds);
+        memberships.asMap().keySet().removeIf(key -> userIds.contains(key.substring(key.indexOf(':') + 1, key.lastIndexOf(':'))));
+    }
+
+    /**
+     * Answers from the memberships carried by the access token of the current request, when it was issued
+     * to the same user and its membership version is still the current one.
+     */
+    private Optional<Boolean> tokenMembership(String userId, Long courseId, Function<String, Optional<Long>> versionQuery) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !(authentication.getDetails() instanceof MembershipClaims) || !userId.equals(authentication.getName()))
+            return Optional.empty();
+        MembershipClaims membershipClaims = (MembershipClaims) authentication.getDetails();
+        if (!membershipClaims.isCurrent(() -> membershipVersions.get(userId, versionQuery)))
+            return Optional.empty();
+        return Optional.of(membershipClaims.hasCourse(courseId));
     }
 
+    private boolean isMember(String key, Supplier<Optional<Boolean>> tokenMembership, BooleanSupplier query) {
+        if (memberships.getIfPresent(key) != null)
+            return true;
+        Optional<Boolean> fromToken = tokenMembership.get();
+        if (fromToken.isPresent())
+            return fromToken.get();
+        boolean member = query.getAsBoolean();
+        if (member)
+            memberships.put(key, true);
+        return member;
+    }
+
+    private static <K, V> Optional<V> lookup(Cache<K, Optional<V>> cache, K key, Function<K, Optional<V>> query) {
+        Optional<V> value = cache.getIfPresent(key);
+        if (value != null)
+            return value;
+        value = query.apply(key);
+        // Missing entities are not cached, as they may still be created with that id
+        if (value.isPresent())
+            cache.put(key, value);
+        return value;
+    }
 }
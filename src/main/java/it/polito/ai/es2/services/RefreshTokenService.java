@@ -0,0 +1,17 @@
+package it.polito.ai.es2.services;
+
+import it.polito.ai.es2.exceptions.UserManagementServiceException;
+import it.polito.ai.es2.utility.JwtResponse;
+
+public interface RefreshTokenService {
+
+    JwtResponse login(String username);
+
+    JwtResponse refresh(String refreshToken) throws UserManagementServiceException;
+
+    void revoke(String refreshToken);
+
+    void revokeAllOf(String username);
+
+    int deleteExpired();
+}
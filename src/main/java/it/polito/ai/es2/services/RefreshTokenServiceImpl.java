@@ -0,0 +1,147 @@
+package it.polito.ai.es2.services;
+
+import it.polito.ai.es2.components.JwtTokenProvider;
+import it.polito.ai.es2.entities.RefreshToken;
+import it.polito.ai.es2.exceptions.InvalidRefreshTokenException;
+import it.polito.ai.es2.repositories.RefreshTokenRepository;
+import it.polito.ai.es2.repositories.StudentRepository;
+import it.polito.ai.es2.repositories.TeacherRepository;
+import it.polito.ai.es2.utility.JwtResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Service;
+
+import javax.transaction.Transactional;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+@Service
+@Transactional
+@Slf4j
+public class RefreshTokenServiceImpl implements RefreshTokenService {
+
+    private static final int TOKEN_BYTES = 32;
+
+    @Autowired
+    RefreshTokenRepository refreshTokenRepo;
+
+    @Autowired
+    UserDetailsServiceImpl userDetailsService;
+
+    @Autowired
+    JwtTokenProvider jwtTokenProvider;
+
+    @Autowired
+    StudentRepository studentRepo;
+
+    @Autowired
+    TeacherRepository teacherRepo;
+
+    @Value("${security.jwt.token.membership-claims:false}")
+    private boolean membershipClaims;
+
+    @Value("${security.jwt.refresh-token.expire-length:1209600000}") // Default: 14d
+    private long validityInMilliseconds;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    /**
+     * Starts a new refresh token family for a user whose credentials have just been checked.
+     */
+    @Override
+    public JwtResponse login(String username) {
+        return issue(userDetailsService.loadUserByUsername(username), UUID.randomUUID().toString());
+    }
+
+    /**
+     * Exchanges a refresh token for a new access token and the next refresh token of its family,
+     * without going through the password encoder. A token presented twice has leaked:
+     * the whole family is revoked, the legitimate client included.
+     */
+    @Override
+    @Transactional(dontRollbackOn = InvalidRefreshTokenException.class)
+    public JwtResponse refresh(String refreshToken) {
+        RefreshToken stored = refreshTokenRepo.findForUpdate(digest(refreshToken))
+                .orElseThrow(InvalidRefreshTokenException::new);
+        if (stored.isUsed()) {
+            log.warn("Refresh token reused for user '" + stored.getUsername() + "', revoking its family");
+            refreshTokenRepo.deleteAllByFamily(stored.getFamily());
+            throw new InvalidRefreshTokenException("Refresh token already used!");
+        }
+        if (stored.getExpiryDate().before(new Timestamp(System.currentTimeMillis()))) {
+            refreshTokenRepo.delete(stored);
+            throw new InvalidRefreshTokenException();
+        }
+        stored.setUsed(true);
+        return issue(userDetailsService.loadUserByUsername(stored.getUsername()), stored.getFamily());
+    }
+
+    @Override
+    public void revoke(String refreshToken) {
+        refreshTokenRepo.findById(digest(refreshToken))
+                .ifPresent(stored -> refreshTokenRepo.deleteAllByFamily(stored.getFamily()));
+    }
+
+    @Override
+    public void revokeAllOf(String username) {
+        refreshTokenRepo.deleteAllByUsername(username);
+    }
+
+    @Override
+    public int deleteExpired() {
+        return refreshTokenRepo.deleteAllByExpiryDateBefore(new Timestamp(System.currentTimeMillis()));
+    }
+
+    private JwtResponse issue(UserDetails userDetails, String family) {
+        byte[] randomBytes = new byte[TOKEN_BYTES];
+        secureRandom.nextBytes(randomBytes);
+        String refreshToken = Base64.getUrlEncoder().withoutPadding().encodeToString(randomBytes);
+        refreshTokenRepo.save(new RefreshToken(digest(refreshToken), family, userDetails.getUsername(),
+                new Timestamp(System.currentTimeMillis() + validityInMilliseconds), false));
+
+        String username = userDetails.getUsername();
+        List<String> roles = userDetails.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .collect(Collectors.toList());
+        if (!membershipClaims)
+            return new JwtResponse(jwtTokenProvider.createToken(username, roles), refreshToken);
+
+        // Read before the memberships: a change in between makes the token stale instead of wrong
+        long membershipVersion;
+        List<Long> courseIds;
+        if (roles.contains("ROLE_STUDENT")) {
+            membershipVersion = studentRepo.findMembershipVersion(username).orElse(0L);
+            courseIds = studentRepo.findCourseIds(username);
+        } else if (roles.contains("ROLE_TEACHER")) {
+            membershipVersion = teacherRepo.findMembershipVersion(username).orElse(0L);
+            courseIds = teacherRepo.findCourseIds(username);
+        } else {
+            membershipVersion = 0;
+            courseIds = Collections.emptyList();
+        }
+        return new JwtResponse(jwtTokenProvider.createToken(username, roles, courseIds, membershipVersion), refreshToken);
+    }
+
+    private static String digest(String refreshToken) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(refreshToken.getBytes(StandardCharsets.US_ASCII));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest)
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
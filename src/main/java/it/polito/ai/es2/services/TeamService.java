@@ -4,6 +4,7 @@ import it.polito.ai.es2.HomeworkId;
 import it.polito.ai.es2.dtos.*;
 import it.polito.ai.es2.entities.User;
 import it.polito.ai.es2.exceptions.TeamServiceException;
+import it.polito.ai.es2.utility.KeysetPage;
 import it.polito.ai.es2.utility.VmStatus;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -23,6 +24,8 @@ public interface TeamService {
 
     CourseDTO editCourse(CourseDTO courseDTO, String teacherId);
 
+    KeysetPage<CourseDTO> getCoursesPage(String sort, String cursor, int limit);
+
     List<CourseDTO> getAllCourses();
 
     boolean addStudent(StudentDTO student);
@@ -31,6 +34,12 @@ public interface TeamService {
 
     Optional<StudentDTO> getStudent(String studentId);
 
+    String getAvatarHashOfStudent(String studentId) throws TeamServiceException;
+
+    AvatarDTO getAvatarOfStudent(String studentId) throws TeamServiceException;
+
+    KeysetPage<StudentDTO> getStudentsPage(String sort, String cursor, int limit);
+
     List<StudentDTO> getAllStudents();
 
     boolean addTeacher(TeacherDTO teacher);
@@ -43,10 +52,18 @@ public interface TeamService {
 
     Optional<TeacherDTO> getTeacher(String teacherId);
 
+    String getAvatarHashOfTeacher(String teacherId) throws TeamServiceException;
+
+    AvatarDTO getAvatarOfTeacher(String teacherId) throws TeamServiceException;
+
+    KeysetPage<TeacherDTO> getTeachersPage(String sort, String cursor, int limit);
+
     List<TeacherDTO> getAllTeachers();
 
     List<TeacherDTO> getTeachersOfCourse(Long courseId) throws TeamServiceException;
 
+    KeysetPage<StudentDTO> getEnrolledStudentsPage(Long courseId, String sort, String cursor, int limit) throws TeamServiceException;
+
     List<StudentDTO> getEnrolledStudents(Long courseId) throws TeamServiceException;
 
     StudentDTO addStudentToCourse(String studentId, Long courseId) throws TeamServiceException;
@@ -61,7 +78,7 @@ public interface TeamService {
 
     List<Boolean> enrollAll(List<String> studentIds, Long courseId);
 
-    List<Boolean> addAndEnroll(Reader r, Long courseId);
+    List<EnrollmentResultDTO> addAndEnroll(Reader r, Long courseId) throws IOException;
 
     List<CourseDTO> getCourses(String studentId) throws TeamServiceException;
 
@@ -73,6 +90,8 @@ public interface TeamService {
 
     ProposalNotificationDTO proposeTeam(Long courseId, RequestTeamDTO team) throws TeamServiceException;
 
+    KeysetPage<TeamDTO> getTeamsPageForCourse(Long courseId, String sort, String cursor, int limit) throws TeamServiceException;
+
     List<TeamDTO> getTeamsForCourse(Long courseId) throws TeamServiceException;
 
     List<StudentDTO> getStudentsInTeams(Long courseId) throws TeamServiceException;
@@ -99,6 +118,8 @@ public interface TeamService {
 
     List<HomeworkDTO> getHomeworksForCourse(Long courseId) throws TeamServiceException;
 
+    List<DocumentDTO> getHomeworkDocumentsOfAssignment(Long courseId, Long assignmentId, boolean allVersions) throws IOException, TeamServiceException;
+
     HomeworkDTO getHomework(Long courseId, HomeworkId homeworkId) throws TeamServiceException;
 
     HomeworkVersionDTO submitHomeworkVersion(Long courseId, HomeworkId homeworkId, MultipartFile content) throws IOException, NoSuchAlgorithmException, TeamServiceException;
@@ -1,29 +1,37 @@
 package it.polito.ai.es2.services;
 
-import com.opencsv.bean.CsvToBean;
-import com.opencsv.bean.CsvToBeanBuilder;
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
 import it.polito.ai.es2.HomeworkId;
 import it.polito.ai.es2.dtos.*;
 import it.polito.ai.es2.entities.*;
 import it.polito.ai.es2.exceptions.*;
 import it.polito.ai.es2.repositories.*;
+import it.polito.ai.es2.utility.EnrollmentStatus;
+import it.polito.ai.es2.utility.KeysetPage;
 import it.polito.ai.es2.utility.ResponseTypeInvitation;
 import it.polito.ai.es2.utility.StudentStatusInvitation;
 import it.polito.ai.es2.utility.TeamStatus;
 import it.polito.ai.es2.utility.VmStatus;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.imageio.ImageIO;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.JoinType;
 import javax.transaction.Transactional;
 import javax.validation.Valid;
 import java.awt.*;
@@ -32,6 +40,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.net.URI;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
 import java.util.List;
@@ -43,8 +52,12 @@ import java.util.stream.Collectors;
 @Transactional
 public class TeamServiceImpl implements TeamService {
 
+    private static final int ENROLLMENT_CHUNK_SIZE = 500;
+
     byte[] defaultAvatar;
 
+    String defaultAvatarHash;
+
     byte[] runningVmAvatar;
 
     @Autowired
@@ -89,12 +102,28 @@ public class TeamServiceImpl implements TeamService {
     @Autowired
     ProposalNotificationRepository proposalNotificationRepository;
 
+    @Autowired
+    PermissionEvaluatorImpl permissionEvaluator;
+
+    @Autowired
+    KeysetPaginator keysetPaginator;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
 
     public TeamServiceImpl() throws IOException {
         Resource resource = new ClassPathResource("img/default_user_avatar.png");
         InputStream defaultAvatarInputStream = resource.getInputStream();
         defaultAvatar = new byte[defaultAvatarInputStream.available()];
         defaultAvatarInputStream.read(defaultAvatar);
+        defaultAvatarHash = Avatar.hashOf(defaultAvatar);
         resource = new ClassPathResource("img/vmscreen.png");
         defaultAvatarInputStream = resource.getInputStream();
         runningVmAvatar = new byte[defaultAvatarInputStream.available()];
@@ -110,6 +139,7 @@ public class TeamServiceImpl implements TeamService {
                     .orElseThrow(TeacherNotFoundException::new);
             Course course = courseRepo.save(modelMapper.map(courseDTO, Course.class));
             teacher.addCourse(course);
+            permissionEvaluator.membershipsChanged(teacherId);
 
             courseDTO = modelMapper.map(course,CourseDTO.class);
 
@@ -151,20 +181,16 @@ public class TeamServiceImpl implements TeamService {
                 .flatMap(homework -> homework.getVersions().stream())
                 .map(HomeworkVersion::getContent)
                 .forEach(relatedDocuments::add);
-        for (Document document : relatedDocuments) {
-            try {
-                documentService.removeDocument(document);
-            } catch (IOException e) {
-                throw new IOException(e);
-            }
-        }
+        // The stored bytes are only deleted once the course deletion has committed
+        for (Document document : relatedDocuments)
+            documentService.removeDocument(document);
 
-        List<Student> enrolledStudents = course.getStudents();
+        Set<Student> enrolledStudents = course.getStudents();
         Map<Student, Course> enrollments = new HashMap<>();
         enrolledStudents.forEach(student -> enrollments.put(student, course));
         enrollments.forEach(Student::removeCourse);
 
-        List<Teacher> courseTeachers = course.getTeachers();
+        Set<Teacher> courseTeachers = course.getTeachers();
         Map<Teacher, Course> courseOwnerships = new HashMap<>();
         courseTeachers.forEach(teacher -> courseOwnerships.put(teacher, course));
         courseOwnerships.forEach(Teacher::removeCourse);
@@ -198,6 +224,17 @@ public class TeamServiceImpl implements TeamService {
         }
     }
 
+    @Override
+    @PreAuthorize("hasRole('ROLE_TEACHER') or hasRole('ROLE_ADMIN')")
+    public KeysetPage<CourseDTO> getCoursesPage(String sort, String cursor, int limit) {
+        Specification<Course> withVmModel = (root, query, cb) -> {
+            root.fetch("vmModel", JoinType.LEFT);
+            return null;
+        };
+        return keysetPaginator.findPage(Course.class, withVmModel, sortAttribute(sort, "name", "acronym"), cursor, limit)
+                .map(c -> modelMapper.map(c, CourseDTO.class));
+    }
+
     @Override
     @PreAuthorize("hasRole('ROLE_TEACHER') or hasRole('ROLE_ADMIN')")
     public List<CourseDTO> getAllCourses() {
@@ -212,9 +249,6 @@ public class TeamServiceImpl implements TeamService {
         if (studentRepo.existsById(studentDTO.getId()))
             return false;
         else {
-            if (studentDTO.getAvatar() == null) {
-                studentDTO.setAvatar(defaultAvatar);
-            }
             Student student = modelMapper.map(studentDTO, Student.class);
             studentRepo.save(student);
             return true;
@@ -226,7 +260,7 @@ public class TeamServiceImpl implements TeamService {
         Student student = studentRepo.findById(studentDTO.getId()).orElseThrow(StudentNotFoundException::new);
         student.setAuthUser(authUser);
         if (avatar != null && !avatar.isEmpty()) {
-            student.setAvatar(resizeAvatar(avatar));
+            student.setAvatar(new Avatar(resizeAvatar(avatar)));
         }
         studentRepo.save(student);
     }
@@ -236,6 +270,29 @@ public class TeamServiceImpl implements TeamService {
         return studentRepo.findById(studentId).map(s -> modelMapper.map(s, StudentDTO.class));
     }
 
+    /**
+     * The avatar hash can be checked against the client copy without loading the image itself.
+     */
+    @Override
+    public String getAvatarHashOfStudent(String studentId) throws TeamServiceException {
+        if (!studentRepo.existsById(studentId))
+            throw new StudentNotFoundException("Student id '" + studentId + "' not found!");
+        return studentRepo.findAvatarHash(studentId).orElse(defaultAvatarHash);
+    }
+
+    @Override
+    public AvatarDTO getAvatarOfStudent(String studentId) throws TeamServiceException {
+        if (!studentRepo.existsById(studentId))
+            throw new StudentNotFoundException("Student id '" + studentId + "' not found!");
+        return studentRepo.findAvatar(studentId).orElseGet(() -> new AvatarDTO(defaultAvatarHash, defaultAvatar));
+    }
+
+    @Override
+    public KeysetPage<StudentDTO> getStudentsPage(String sort, String cursor, int limit) {
+        return keysetPaginator.findPage(Student.class, null, sortAttribute(sort, "lastName", "firstName"), cursor, limit)
+                .map(s -> modelMapper.map(s, StudentDTO.class));
+    }
+
     @Override
     public List<StudentDTO> getAllStudents() {
         return studentRepo.findAll()
@@ -249,8 +306,6 @@ public class TeamServiceImpl implements TeamService {
         if (teacherRepo.existsById(teacherDTO.getId()))
             return false;
         else {
-            if (teacherDTO.getAvatar() == null)
-                teacherDTO.setAvatar(defaultAvatar);
             Teacher teacher = modelMapper.map(teacherDTO, Teacher.class);
             teacherRepo.save(teacher);
             return true;
@@ -267,6 +322,7 @@ public class TeamServiceImpl implements TeamService {
                 .orElseThrow(() -> new CourseNotFoundException("Course '" + courseId + "' not found!"));
 
         teacher.addCourse(course);
+        permissionEvaluator.membershipsChanged(teacherId);
 
         return modelMapper.map(teacher, TeacherDTO.class);
     }
@@ -281,6 +337,7 @@ public class TeamServiceImpl implements TeamService {
                 .orElseThrow(() -> new CourseNotFoundException("Course '" + courseId + "' not found!"));
 
         teacher.removeCourse(course);
+        permissionEvaluator.membershipsChanged(teacherId);
 
         return modelMapper.map(teacher, TeacherDTO.class);
     }
@@ -290,7 +347,7 @@ public class TeamServiceImpl implements TeamService {
         Teacher teacher = teacherRepo.findById(teacherDTO.getId()).orElseThrow(TeacherNotFoundException::new);
         teacher.setAuthUser(authUser);
         if (avatar != null && !avatar.isEmpty()) {
-            teacher.setAvatar(resizeAvatar(avatar));
+            teacher.setAvatar(new Avatar(resizeAvatar(avatar)));
         }
         teacherRepo.save(teacher);
     }
@@ -300,6 +357,26 @@ public class TeamServiceImpl implements TeamService {
         return teacherRepo.findById(teacherId).map(t -> modelMapper.map(t, TeacherDTO.class));
     }
 
+    @Override
+    public String getAvatarHashOfTeacher(String teacherId) throws TeamServiceException {
+        if (!teacherRepo.existsById(teacherId))
+            throw new TeacherNotFoundException("Teacher id '" + teacherId + "' not found!");
+        return teacherRepo.findAvatarHash(teacherId).orElse(defaultAvatarHash);
+    }
+
+    @Override
+    public AvatarDTO getAvatarOfTeacher(String teacherId) throws TeamServiceException {
+        if (!teacherRepo.existsById(teacherId))
+            throw new TeacherNotFoundException("Teacher id '" + teacherId + "' not found!");
+        return teacherRepo.findAvatar(teacherId).orElseGet(() -> new AvatarDTO(defaultAvatarHash, defaultAvatar));
+    }
+
+    @Override
+    public KeysetPage<TeacherDTO> getTeachersPage(String sort, String cursor, int limit) {
+        return keysetPaginator.findPage(Teacher.class, null, sortAttribute(sort, "lastName", "firstName"), cursor, limit)
+                .map(t -> modelMapper.map(t, TeacherDTO.class));
+    }
+
     @Override
     public List<TeacherDTO> getAllTeachers() {
         return teacherRepo.findAll()
@@ -310,23 +387,27 @@ public class TeamServiceImpl implements TeamService {
 
     @Override
     public List<TeacherDTO> getTeachersOfCourse(Long courseId) throws TeamServiceException {
-        Course course = courseRepo.findById(courseId)
-                .orElseThrow(() -> new CourseNotFoundException("Course id " + courseId + " not found!"));
-        return course.getTeachers().stream()
-                .map(teacher -> modelMapper.map(teacher, TeacherDTO.class))
-                .collect(Collectors.toList());
+        if (!courseRepo.existsById(courseId))
+            throw new CourseNotFoundException("Course id " + courseId + " not found!");
+        return courseRepo.findTeachersOfCourse(courseId);
+    }
+
+    @Override
+    @PreAuthorize("hasRole('ROLE_TEACHER') or hasRole('ROLE_ADMIN')")
+    public KeysetPage<StudentDTO> getEnrolledStudentsPage(Long courseId, String sort, String cursor, int limit) throws TeamServiceException {
+        if (!courseRepo.existsById(courseId))
+            throw new CourseNotFoundException("Course '" + courseId + "' not found!");
+        Specification<Student> enrolled = (root, query, cb) -> cb.equal(root.join("courses").get("id"), courseId);
+        return keysetPaginator.findPage(Student.class, enrolled, sortAttribute(sort, "lastName", "firstName"), cursor, limit)
+                .map(s -> modelMapper.map(s, StudentDTO.class));
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_TEACHER') or hasRole('ROLE_ADMIN')")
     public List<StudentDTO> getEnrolledStudents(Long courseId) throws TeamServiceException {
-        Optional<Course> course = courseRepo.findById(courseId);
-        if (course.isPresent()) {
-            return course.get().getStudents()
-                    .stream()
-                    .map(s -> modelMapper.map(s, StudentDTO.class))
-                    .collect(Collectors.toList());
-        } else throw new CourseNotFoundException("Course '" + courseId + "' not found!");
+        if (courseRepo.existsById(courseId))
+            return courseRepo.findStudentsOfCourse(courseId);
+        else throw new CourseNotFoundException("Course '" + courseId + "' not found!");
     }
 
     @Override
@@ -339,6 +420,7 @@ public class TeamServiceImpl implements TeamService {
                 .orElseThrow(() -> new CourseNotFoundException("Course '" + courseId + "' not found!"));
 
         if (student.addCourse(course)) {
+            permissionEvaluator.membershipsChanged(studentId);
             if (!course.getAssignments().isEmpty()) {
                 course.getAssignments().forEach(
                         assignment -> generateHomeworkForStudent(assignment, student)
@@ -367,6 +449,7 @@ public class TeamServiceImpl implements TeamService {
             homeworkRepo.delete(homework);
         });
         student.removeCourse(course);
+        permissionEvaluator.membershipsChanged(studentId);
 
         return modelMapper.map(student, StudentDTO.class);
     }
@@ -406,19 +489,157 @@ public class TeamServiceImpl implements TeamService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Runs outside of any transaction: each chunk of the roster is enrolled in its own, so that locks and the
+     * persistence context are released as the roster is read. A failure leaves the chunks before it enrolled;
+     * importing the roster again reports them as already enrolled.
+     */
     @Override
     @PreAuthorize("(hasRole('ROLE_TEACHER')  and @permissionEvaluator.teacherHasCourse(authentication.principal.username,#courseId)) or hasRole('ROLE_ADMIN')")
-    public List<Boolean> addAndEnroll(Reader r, Long courseId) {
-        CsvToBean<StudentDTO> csvToBean = new CsvToBeanBuilder<StudentDTO>(r)
-                .withType(StudentDTO.class)
-                .withIgnoreLeadingWhiteSpace(true)
-                .build();
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public List<EnrollmentResultDTO> addAndEnroll(Reader r, Long courseId) throws IOException {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        List<Long> assignmentIds = transactionTemplate.execute(status -> courseRepo.findById(courseId)
+                .orElseThrow(() -> new CourseNotFoundException("Course '" + courseId + "' not found!"))
+                .getAssignments().stream()
+                .map(Assignment::getId)
+                .collect(Collectors.toList()));
+
+        CSVReader csvReader = new CSVReader(r);
+        String[] header;
+        try {
+            header = csvReader.readNext();
+        } catch (CsvValidationException e) {
+            throw new IOException("Invalid CSV header: " + e.getMessage(), e);
+        }
+        List<EnrollmentResultDTO> results = new ArrayList<>();
+        if (header == null)
+            return results;
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.length; i++)
+            columns.putIfAbsent(header[i].trim().toLowerCase(Locale.ROOT), i);
+
+        Map<String, Long> seen = new HashMap<>();
+        List<StudentDTO> chunk = new ArrayList<>(ENROLLMENT_CHUNK_SIZE);
+        List<EnrollmentResultDTO> chunkResults = new ArrayList<>(ENROLLMENT_CHUNK_SIZE);
+        while (true) {
+            String[] fields;
+            try {
+                fields = csvReader.readNext();
+            } catch (CsvValidationException | IOException e) {
+                // An unterminated quoted field consumes the rest of the file, so there is nothing left to read
+                results.add(new EnrollmentResultDTO(csvReader.getRecordsRead() - 1, null, EnrollmentStatus.INVALID, e.getMessage()));
+                if (e instanceof IOException)
+                    break;
+                continue;
+            }
+            if (fields == null)
+                break;
+            if (Arrays.stream(fields).allMatch(String::isBlank))
+                continue;
+
+            long row = csvReader.getRecordsRead() - 1;
+            StudentDTO studentDTO = new StudentDTO(field(fields, columns, "id"), field(fields, columns, "lastName"),
+                    field(fields, columns, "firstName"), field(fields, columns, "email"));
+            EnrollmentResultDTO result = new EnrollmentResultDTO(row, studentDTO.getId(), null, null);
+            results.add(result);
+            String error = validateRosterRow(fields, header, columns, studentDTO);
+            if (error != null) {
+                result.setStatus(EnrollmentStatus.INVALID);
+                result.setMessage(error);
+                continue;
+            }
+            Long firstRow = seen.putIfAbsent(studentDTO.getId(), row);
+            if (firstRow != null) {
+                result.setStatus(EnrollmentStatus.ALREADY_ENROLLED);
+                result.setMessage("Repeated from row " + firstRow);
+                continue;
+            }
 
-        List<@Valid StudentDTO> studentDTOList = csvToBean.parse();
-        addAll(studentDTOList);
-        return enrollAll(studentDTOList.stream()
-                .map(StudentDTO::getId)
-                .collect(Collectors.toList()), courseId);
+            chunk.add(studentDTO);
+            chunkResults.add(result);
+            if (chunk.size() == ENROLLMENT_CHUNK_SIZE) {
+                transactionTemplate.executeWithoutResult(status -> addAndEnrollChunk(chunk, chunkResults, courseId, assignmentIds));
+                chunk.clear();
+                chunkResults.clear();
+            }
+        }
+        if (!chunk.isEmpty())
+            transactionTemplate.executeWithoutResult(status -> addAndEnrollChunk(chunk, chunkResults, courseId, assignmentIds));
+        return results;
+    }
+
+    private static String field(String[] fields, Map<String, Integer> columns, String name) {
+        Integer column = columns.get(name.toLowerCase(Locale.ROOT));
+        return column == null || column >= fields.length ? null : fields[column].trim();
+    }
+
+    /**
+     * Returns why a roster row cannot be enrolled, or null when it is valid.
+     */
+    private static String validateRosterRow(String[] fields, String[] header, Map<String, Integer> columns, StudentDTO studentDTO) {
+        if (fields.length != header.length)
+            return "Expected " + header.length + " fields, found " + fields.length;
+        for (String name : List.of("id", "lastName", "firstName", "email")) {
+            if (!columns.containsKey(name.toLowerCase(Locale.ROOT)))
+                return "Missing column '" + name + "'";
+            if (field(fields, columns, name).isEmpty())
+                return "Missing value for '" + name + "'";
+        }
+        if (!studentDTO.getEmail().contains("@"))
+            return "Invalid email '" + studentDTO.getEmail() + "'";
+        return null;
+    }
+
+    /**
+     * Enrolls one chunk of valid roster rows with a constant number of round trips: students are looked up with
+     * one IN query each for existence and enrollment, new students and homeworks are written through
+     * Hibernate batched inserts and the enrollments through a JDBC batch. The persistence context is
+     * cleared afterwards, so memory does not grow with the roster even when it outlives the transaction.
+     * The result of each row is filled in with the student either enrolled or already enrolled.
+     */
+    private void addAndEnrollChunk(List<StudentDTO> chunk, List<EnrollmentResultDTO> chunkResults, Long courseId, List<Long> assignmentIds) {
+        Set<String> ids = chunk.stream().map(StudentDTO::getId).collect(Collectors.toSet());
+        Set<String> existing = new HashSet<>(studentRepo.findExistingIds(ids));
+        Set<String> enrolled = new HashSet<>(studentRepo.findEnrolledIds(courseId, ids));
+
+        List<String> toEnroll = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            StudentDTO studentDTO = chunk.get(i);
+            EnrollmentResultDTO result = chunkResults.get(i);
+            String id = studentDTO.getId();
+            if (enrolled.contains(id)) {
+                result.setStatus(EnrollmentStatus.ALREADY_ENROLLED);
+                result.setMessage("Already enrolled in the course");
+                continue;
+            }
+            if (existing.contains(id)) {
+                result.setMessage("Enrolled");
+            } else {
+                entityManager.persist(modelMapper.map(studentDTO, Student.class));
+                result.setMessage("New student added and enrolled");
+            }
+            for (Long assignmentId : assignmentIds) {
+                Homework homework = new Homework();
+                homework.setAssignment_id(assignmentId);
+                homework.setStudent_id(id);
+                homework.setCurrentStatus(Homework.homeworkStatus.NULL);
+                entityManager.persist(homework);
+            }
+            toEnroll.add(id);
+            result.setStatus(EnrollmentStatus.ENROLLED);
+        }
+        // The students must exist before their enrollments reference them
+        entityManager.flush();
+        if (!toEnroll.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO student_course (student_id, course_id) VALUES (?, ?)", toEnroll, toEnroll.size(),
+                    (ps, id) -> {
+                        ps.setString(1, id);
+                        ps.setLong(2, courseId);
+                    });
+            permissionEvaluator.membershipsChanged(toEnroll);
+        }
+        entityManager.clear();
     }
 
     @Override
@@ -448,12 +669,8 @@ public class TeamServiceImpl implements TeamService {
     @Override
     @PreAuthorize("(hasRole('ROLE_TEACHER') and #teacherId == authentication.principal.username) or hasRole('ROLE_ADMIN')")
     public List<CourseDTO> getCoursesForTeacher(String teacherId) throws TeamServiceException {
-        Optional<Teacher> teacher = teacherRepo.findById(teacherId);
-        if (teacher.isPresent())
-            return teacher.get().getCourses()
-                    .stream()
-                    .map(c -> modelMapper.map(c, CourseDTO.class))
-                    .collect(Collectors.toList());
+        if (teacherRepo.existsById(teacherId))
+            return teacherRepo.findCoursesOfTeacher(teacherId);
         else throw new TeacherNotFoundException("Teacher id '" + teacherId + "' not found!");
     }
 
@@ -503,7 +720,7 @@ public class TeamServiceImpl implements TeamService {
             throw new StudentNotEnrolledToCourseException("One or more students not enrolled to course '" + courseId + "'!");
 
         for (Team team : course.getTeams()) {
-            List<Student> teamMembers = team.getMembers();
+            Set<Student> teamMembers = team.getMembers();
             for (Student student : newMembers) {
                 if (teamMembers.contains(student))
                     throw new StudentAlreadyMemberForCourseException("Student '" + student.getId() + "' already has a team!");
@@ -543,16 +760,23 @@ public class TeamServiceImpl implements TeamService {
         return modelMapper.map(proposalNotification,ProposalNotificationDTO.class);
     }
 
+    @Override
+    @PreAuthorize("(hasRole('ROLE_STUDENT') and @permissionEvaluator.studentEnrolledInCourse(authentication.principal.username,#courseId)) or" +
+            "(hasRole('ROLE_TEACHER') and @permissionEvaluator.teacherHasCourse(authentication.principal.username,#courseId)) or hasRole('ROLE_ADMIN')")
+    public KeysetPage<TeamDTO> getTeamsPageForCourse(Long courseId, String sort, String cursor, int limit) throws TeamServiceException {
+        if (!courseRepo.existsById(courseId))
+            throw new CourseNotFoundException("Course '" + courseId + "' not found!");
+        Specification<Team> ofCourse = (root, query, cb) -> cb.equal(root.get("course").get("id"), courseId);
+        return keysetPaginator.findPage(Team.class, ofCourse, sortAttribute(sort, "name"), cursor, limit)
+                .map(t -> modelMapper.map(t, TeamDTO.class));
+    }
+
     @Override
     @PreAuthorize("(hasRole('ROLE_STUDENT') and @permissionEvaluator.studentEnrolledInCourse(authentication.principal.username,#courseId)) or" +
             "(hasRole('ROLE_TEACHER') and @permissionEvaluator.teacherHasCourse(authentication.principal.username,#courseId)) or hasRole('ROLE_ADMIN')")
     public List<TeamDTO> getTeamsForCourse(Long courseId) throws TeamServiceException {
-        Optional<Course> course = courseRepo.findById(courseId);
-        if (course.isPresent())
-            return course.get().getTeams()
-                    .stream()
-                    .map(t -> modelMapper.map(t, TeamDTO.class))
-                    .collect(Collectors.toList());
+        if (courseRepo.existsById(courseId))
+            return courseRepo.findTeamsOfCourse(courseId);
         else throw new CourseNotFoundException("Course '" + courseId + "' not found!");
     }
 
@@ -637,7 +861,7 @@ public class TeamServiceImpl implements TeamService {
             throw new AssignmentInvalidExpiryDateException();
         }
 
-        Document document = documentService.addDocument(content);
+        Document document = documentService.addDocument(content, courseId);
 
         assignment.setReleaseDate(releaseDate);
         assignment.setContent(document);
@@ -665,7 +889,7 @@ public class TeamServiceImpl implements TeamService {
 
         Document document = assignment.getContent();
 
-        ByteArrayResource content = documentService.getDocumentContent(document);
+        DocumentDTO documentDTO = toDocumentDTO(document);
 
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         if (auth != null && auth.getAuthorities().stream().anyMatch(a -> a.getAuthority().equals("ROLE_STUDENT"))) {
@@ -676,13 +900,7 @@ public class TeamServiceImpl implements TeamService {
                 homework.setCurrentStatus(Homework.homeworkStatus.READ);
         }
 
-        return DocumentDTO.builder()
-                .id(document.getId())
-                .name(document.getName())
-                .mimeType(document.getMimeType())
-                .size(document.getSize())
-                .content(content)
-                .build();
+        return documentDTO;
     }
 
     @Override
@@ -724,6 +942,58 @@ public class TeamServiceImpl implements TeamService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Collects the documents of the submitted versions of every homework of the assignment, only the latest one
+     * per student unless all versions are requested. Names are the paths of the entries of an archive
+     * ({@code <studentId>/<versionId>-<name>}), contents are read from the store only when consumed.
+     */
+    @Override
+    @PreAuthorize("(hasRole('ROLE_TEACHER') and @permissionEvaluator.teacherHasCourseOfAssignment(authentication.principal.username,#assignmentId)) or hasRole('ROLE_ADMIN')")
+    public List<DocumentDTO> getHomeworkDocumentsOfAssignment(Long courseId, Long assignmentId, boolean allVersions) throws IOException, TeamServiceException {
+        Course course = courseRepo.findById(courseId).orElseThrow(CourseNotFoundException::new);
+        Assignment assignment = assignmentRepo.findById(assignmentId).orElseThrow(AssignmentNotFoundException::new);
+
+        if (!course.getAssignments().contains(assignment)) {
+            throw new AssignmentNotInCourseException();
+        }
+
+        // The submissions of all the homeworks in one query, the latest ones by timestamp unless all are wanted
+        List<HomeworkVersion> submittedVersions = allVersions
+                ? homeworkVersionRepo.findAllOfAssignment(assignmentId, Homework.homeworkStatus.SUBMITTED)
+                : homeworkVersionRepo.findLatestOfAssignment(assignmentId, Homework.homeworkStatus.SUBMITTED);
+        List<DocumentDTO> documents = new ArrayList<>();
+        for (HomeworkVersion homeworkVersion : submittedVersions) {
+            Document document = homeworkVersion.getContent();
+            documents.add(DocumentDTO.builder()
+                    .id(document.getId())
+                    .name(zipEntryName(homeworkVersion.getHomework().getStudent_id(), homeworkVersion.getId(), document.getName()))
+                    .mimeType(document.getMimeType())
+                    .size(document.getSize())
+                    .hash(document.getHash())
+                    .content(documentService.getUncachedDocumentContent(document))
+                    .build());
+        }
+        return documents;
+    }
+
+    /**
+     * Builds the archive path of a submission as student/version-name. The file name was supplied by the client:
+     * it is reduced to its last path component, without separators or dot-dot sequences, so that no entry can point
+     * outside the directory the archive is extracted to.
+     */
+    private static String zipEntryName(String studentId, Long versionId, String fileName) {
+        String directory = safePathComponent(studentId);
+        String name = safePathComponent(fileName);
+        return (directory.isEmpty() ? "" : directory + "/") + (name.isEmpty() ? versionId.toString() : versionId + "-" + name);
+    }
+
+    private static String safePathComponent(String name) {
+        if (name == null)
+            return "";
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+        return name.replace("..", "").replace(":", "").trim();
+    }
+
     @Override
     @PreAuthorize("(hasRole('ROLE_TEACHER') and @permissionEvaluator.teacherHasCourse(authentication.principal.username, #courseId)) or hasRole('ROLE_ADMIN')")
     public List<HomeworkDTO> getHomeworksForCourse(Long courseId) throws TeamServiceException {
@@ -760,7 +1030,7 @@ public class TeamServiceImpl implements TeamService {
 
         Homework homework = homeworkRepo.findById(homeworkId).orElseThrow(HomeworkNotFoundException::new);
         if (homework.isCanSubmit()) {
-            Document document = documentService.addDocument(content);
+            Document document = documentService.addDocument(content, courseId);
 
             HomeworkVersion homeworkVersion = new HomeworkVersion();
             homeworkVersion.setTimestamp(new Timestamp(System.currentTimeMillis()));
@@ -788,7 +1058,7 @@ public class TeamServiceImpl implements TeamService {
 
         Homework homework = homeworkRepo.findById(homeworkId).orElseThrow(HomeworkNotFoundException::new);
 
-        Document document = documentService.addDocument(content);
+        Document document = documentService.addDocument(content, courseId);
 
         HomeworkVersion homeworkVersion = new HomeworkVersion();
         homeworkVersion.setTimestamp(new Timestamp(System.currentTimeMillis()));
@@ -897,7 +1167,7 @@ public class TeamServiceImpl implements TeamService {
 
         Document document = homeworkVersion.getContent();
 
-        ByteArrayResource content = documentService.getDocumentContent(document);
+        DocumentDTO documentDTO = toDocumentDTO(document);
 
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         if (auth != null && auth.getAuthorities().stream().anyMatch(a -> a.getAuthority().equals("ROLE_STUDENT"))) {
@@ -913,13 +1183,7 @@ public class TeamServiceImpl implements TeamService {
                     homework.setCurrentStatus(Homework.homeworkStatus.READ);
         }
 
-        return DocumentDTO.builder()
-                .id(document.getId())
-                .name(document.getName())
-                .mimeType(document.getMimeType())
-                .size(document.getSize())
-                .content(content)
-                .build();
+        return documentDTO;
     }
 
     @Override
@@ -940,6 +1204,20 @@ public class TeamServiceImpl implements TeamService {
                 .collect(Collectors.toList());
     }
 
+    private DocumentDTO toDocumentDTO(Document document) throws IOException {
+        DocumentDTO.DocumentDTOBuilder documentDTO = DocumentDTO.builder()
+                .id(document.getId())
+                .name(document.getName())
+                .mimeType(document.getMimeType())
+                .size(document.getSize())
+                .hash(document.getHash())
+                .encoding(document.getEncoding());
+        Optional<URI> location = documentService.getDocumentLocation(document);
+        if (location.isPresent())
+            return documentDTO.location(location.get()).build();
+        return documentDTO.content(documentService.getStoredContent(document)).build();
+    }
+
     private void generateHomeworkForStudent(Assignment assignment, Student student) {
         HomeworkDTO homeworkDTO = HomeworkDTO.builder()
                 .assignment_id(assignment.getId())
@@ -1217,6 +1495,15 @@ public class TeamServiceImpl implements TeamService {
     }
 
 
+    /**
+     * Listings can only be sorted by non-null attributes, as the keyset comparison does not handle nulls.
+     */
+    private static String sortAttribute(String sort, String... sortable) {
+        if (sort == null || Arrays.asList(sortable).contains(sort))
+            return sort;
+        throw new IllegalArgumentException("Cannot sort by '" + sort + "'!");
+    }
+
     private byte[] resizeAvatar(MultipartFile avatar) throws IOException {
         BufferedImage originalImage = ImageIO.read(avatar.getInputStream());
         BufferedImage resizedImage = new BufferedImage(512, 512, BufferedImage.TYPE_INT_RGB);
@@ -1,24 +1,112 @@
 package it.polito.ai.es2.services;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import it.polito.ai.es2.entities.User;
 import it.polito.ai.es2.repositories.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.transaction.Transactional;
+import java.time.Duration;
+import java.util.ArrayList;
 
+/**
+ * Loads the users authenticating with a token, caching them for a short time. The cache belongs to the node:
+ * a node evicts the users it changes, while the others keep serving their copy until it expires, so a
+ * removed user or a changed password may still be accepted there for up to the TTL. Deployments that cannot
+ * afford that disable the cache with security.user-cache.enabled=false.
+ */
 @Service
 @Transactional
-public class UserDetailsServiceImpl implements UserDetailsService {
+public class UserDetailsServiceImpl implements UserDetailsService, UserDetailsPasswordService {
 
     @Autowired
     UserRepository userRepo;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${security.user-cache.maximum-size:10000}")
+    private long maximumSize;
+
+    @Value("${security.user-cache.expire-after-write:30s}")
+    private Duration expireAfterWrite;
+
+    @Value("${security.user-cache.enabled:true}")
+    private boolean cacheEnabled;
+
+    private Cache<String, UserDetails> userCache;
+
+    @PostConstruct
+    protected void init() {
+        userCache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, userCache, "userDetails");
+    }
+
+    /**
+     * Users are cached as detached copies, so that no persistence context is shared between requests.
+     */
     @Override
     public UserDetails loadUserByUsername(String username) {
+        return cacheEnabled ? userCache.get(username, this::loadUser) : loadUser(username);
+    }
+
+    private UserDetails loadUser(String username) {
         return userRepo.findByUsername(username)
+                .map(user -> User.builder()
+                        .id(user.getId())
+                        .username(user.getUsername())
+                        .password(user.getPassword())
+                        .roles(new ArrayList<>(user.getRoles()))
+                        .build())
                 .orElseThrow(() -> new UsernameNotFoundException("Username '" + username + "' not found!"));
     }
+
+    /**
+     * Called after a successful login whose hash does not match the current algorithm and cost,
+     * with the password re-hashed by the current encoder.
+     */
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        userRepo.findByUsername(user.getUsername()).ifPresent(stored -> {
+            stored.setPassword(newPassword);
+            evict(stored.getUsername());
+        });
+        return User.builder()
+                .id(((User) user).getId())
+                .username(user.getUsername())
+                .password(newPassword)
+                .roles(new ArrayList<>(((User) user).getRoles()))
+                .build();
+    }
+
+    /**
+     * Drops the cached user now and, when called within a transaction, again after it commits,
+     * so that a concurrent load cannot put the state being replaced back in the cache.
+     */
+    public void evict(String username) {
+        userCache.invalidate(username);
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    userCache.invalidate(username);
+                }
+            });
+    }
 }
@@ -3,6 +3,7 @@ package it.polito.ai.es2.services;
 import it.polito.ai.es2.dtos.UserDTO;
 import it.polito.ai.es2.entities.User;
 import it.polito.ai.es2.exceptions.UserManagementServiceException;
+import it.polito.ai.es2.utility.KeysetPage;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
@@ -17,6 +18,8 @@ public interface UserManagementService {
 
     Optional<UserDTO> getUser(String username);
 
+    KeysetPage<UserDTO> getUsersPage(String sort, String cursor, int limit);
+
     List<UserDTO> getAllUsers();
 
     void removeUser(Long userId) throws UserManagementServiceException;
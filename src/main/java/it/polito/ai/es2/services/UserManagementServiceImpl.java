@@ -1,12 +1,15 @@
 package it.polito.ai.es2.services;
 
+import it.polito.ai.es2.components.JwtTokenProvider;
 import it.polito.ai.es2.dtos.StudentDTO;
 import it.polito.ai.es2.dtos.TeacherDTO;
 import it.polito.ai.es2.dtos.UserDTO;
 import it.polito.ai.es2.entities.User;
 import it.polito.ai.es2.exceptions.EmailNotValidException;
 import it.polito.ai.es2.exceptions.UserManagementServiceException;
+import it.polito.ai.es2.repositories.KeysetPaginator;
 import it.polito.ai.es2.repositories.UserRepository;
+import it.polito.ai.es2.utility.KeysetPage;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -38,6 +41,18 @@ public class UserManagementServiceImpl implements UserManagementService {
     @Autowired
     PasswordEncoder passwordEncoder;
 
+    @Autowired
+    JwtTokenProvider jwtTokenProvider;
+
+    @Autowired
+    UserDetailsServiceImpl userDetailsService;
+
+    @Autowired
+    RefreshTokenService refreshTokenService;
+
+    @Autowired
+    KeysetPaginator keysetPaginator;
+
     @Override
     public User addUser(String id, String lastname, String firstname, String password, String email, MultipartFile avatar) throws UserManagementServiceException, IOException {
         Pattern pattern = Pattern.compile("[sd][0-9]+@(polito|studenti\\.polito)\\.it");
@@ -67,7 +82,7 @@ public class UserManagementServiceImpl implements UserManagementService {
                         .roles(Collections.singletonList("ROLE_STUDENT"))
                         .build()
                 );
-                StudentDTO studentDTO = new StudentDTO(id, lastname, firstname, email, null);
+                StudentDTO studentDTO = new StudentDTO(id, lastname, firstname, email);
                 teamService.addStudent(studentDTO);
                 teamService.addAuthToStudent(studentDTO, user, avatar);
                 return user;
@@ -80,7 +95,7 @@ public class UserManagementServiceImpl implements UserManagementService {
                     .roles(Collections.singletonList("ROLE_TEACHER"))
                     .build()
             );
-            TeacherDTO teacherDTO = new TeacherDTO(id, lastname, firstname, email, null);
+            TeacherDTO teacherDTO = new TeacherDTO(id, lastname, firstname, email);
             teamService.addTeacher(teacherDTO);
             teamService.addAuthToTeacher(teacherDTO, user, avatar);
             return user;
@@ -99,6 +114,15 @@ public class UserManagementServiceImpl implements UserManagementService {
         return userRepo.findByUsername(username).map(u -> modelMapper.map(u, UserDTO.class));
     }
 
+    @Override
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public KeysetPage<UserDTO> getUsersPage(String sort, String cursor, int limit) {
+        if (sort != null && !sort.equals("username"))
+            throw new IllegalArgumentException("Cannot sort by '" + sort + "'!");
+        return keysetPaginator.findPage(User.class, null, sort, cursor, limit)
+                .map(u -> modelMapper.map(u, UserDTO.class));
+    }
+
     @Override
     @PreAuthorize("hasRole('ROLE_ADMIN')")
     public List<UserDTO> getAllUsers() {
@@ -111,8 +135,12 @@ public class UserManagementServiceImpl implements UserManagementService {
     @Override
     @PreAuthorize("hasRole('ROLE_ADMIN')")
     public void removeUser(Long userId) throws UserManagementServiceException {
-        userRepo.delete(userRepo.findById(userId)
-                .orElseThrow(() -> new UsernameNotFoundException("User with id '" + userId + "' not found!")));
+        User user = userRepo.findById(userId)
+                .orElseThrow(() -> new UsernameNotFoundException("User with id '" + userId + "' not found!"));
+        userRepo.delete(user);
+        userDetailsService.evict(user.getUsername());
+        jwtTokenProvider.revokeTokensOf(user.getUsername());
+        refreshTokenService.revokeAllOf(user.getUsername());
     }
 
     @Override
@@ -120,14 +148,20 @@ public class UserManagementServiceImpl implements UserManagementService {
     public void removeUser(String username) throws UserManagementServiceException {
         userRepo.delete(userRepo.findByUsername(username)
                 .orElseThrow(() -> new UsernameNotFoundException("Username '" + username + "' not found!")));
+        userDetailsService.evict(username);
+        jwtTokenProvider.revokeTokensOf(username);
+        refreshTokenService.revokeAllOf(username);
     }
 
     @Override
     @PreAuthorize("#username == authentication.principal.username")
     public void changePassword(Long userId, String newPassword) throws UserManagementServiceException {
-        userRepo.findById(userId)
-                .orElseThrow(() -> new UsernameNotFoundException("User with id '" + userId + "' not found!"))
-                .setPassword(passwordEncoder.encode(newPassword));
+        User user = userRepo.findById(userId)
+                .orElseThrow(() -> new UsernameNotFoundException("User with id '" + userId + "' not found!"));
+        user.setPassword(passwordEncoder.encode(newPassword));
+        userDetailsService.evict(user.getUsername());
+        jwtTokenProvider.revokeTokensOf(user.getUsername());
+        refreshTokenService.revokeAllOf(user.getUsername());
     }
 
     @Override
@@ -136,5 +170,8 @@ public class UserManagementServiceImpl implements UserManagementService {
         userRepo.findByUsername(username)
                 .orElseThrow(() -> new UsernameNotFoundException("Username '" + username + "' not found!"))
                 .setPassword(passwordEncoder.encode(newPassword));
+        userDetailsService.evict(username);
+        jwtTokenProvider.revokeTokensOf(username);
+        refreshTokenService.revokeAllOf(username);
     }
 }
@@ -0,0 +1,211 @@
+package it.polito.ai.es2.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.polito.ai.es2.properties.DocumentStorageProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of the bytes of small stored documents, kept outside of the heap:
+ * files are memory-mapped, other stores are read once into a direct buffer.
+ * Repeated downloads of the same document are then served from memory, without opening the file again.
+ * Stored bytes never change under a key, so entries only need to be evicted when the key is deleted.
+ */
+@Component
+public class DocumentContentCache {
+
+    private final boolean enabled;
+
+    private final long maxDocumentSize;
+
+    private final long maxSize;
+
+    private final Map<String, CachedContent> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size = 0;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    @Autowired
+    public DocumentContentCache(DocumentStorageProperty documentStorageProperty, MeterRegistry meterRegistry) {
+        DocumentStorageProperty.Cache properties = documentStorageProperty.getCache();
+        this.enabled = properties.isEnabled();
+        this.maxDocumentSize = properties.getMaxDocumentSize().toBytes();
+        this.maxSize = properties.getMaxSize().toBytes();
+
+        this.hits = Counter.builder("documents.cache.gets").tag("result", "hit")
+                .description("Document content requests served from the cache").register(meterRegistry);
+        this.misses = Counter.builder("documents.cache.gets").tag("result", "miss")
+                .description("Document content requests read from the document store").register(meterRegistry);
+        Gauge.builder("documents.cache.size", this, DocumentContentCache::getEntryCount)
+                .description("Documents held by the cache").register(meterRegistry);
+        Gauge.builder("documents.cache.bytes", this, DocumentContentCache::getSize)
+                .description("Bytes held by the cache").register(meterRegistry);
+    }
+
+    public Resource get(String key, DocumentStore documentStore) throws IOException {
+        if (!enabled)
+            return documentStore.load(key);
+        CachedContent cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        Resource stored = documentStore.load(key);
+        if (stored.contentLength() > maxDocumentSize)
+            return stored;
+        // Loaded outside of the lock: concurrent misses on the same key at worst map the document twice
+        cached = new CachedContent(key, read(stored), stored.lastModified());
+        put(cached);
+        return cached;
+    }
+
+    public synchronized void evict(String key) {
+        CachedContent removed = entries.remove(key);
+        if (removed != null)
+            size -= removed.contentLength();
+    }
+
+    private synchronized CachedContent lookup(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(CachedContent cached) {
+        CachedContent previous = entries.put(cached.key, cached);
+        if (previous != null)
+            size -= previous.contentLength();
+        size += cached.contentLength();
+        for (Iterator<CachedContent> eldest = entries.values().iterator(); size > maxSize && eldest.hasNext(); ) {
+            size -= eldest.next().contentLength();
+            eldest.remove();
+        }
+    }
+
+    private synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    private synchronized long getSize() {
+        return size;
+    }
+
+    private static ByteBuffer read(Resource stored) throws IOException {
+        if (stored.isFile()) {
+            try (FileChannel channel = FileChannel.open(stored.getFile().toPath(), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) stored.contentLength());
+        try (ReadableByteChannel channel = stored.readableChannel()) {
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) ;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static class CachedContent extends AbstractResource {
+
+        private final String key;
+
+        private final ByteBuffer buffer;
+
+        private final long lastModified;
+
+        CachedContent(String key, ByteBuffer buffer, long lastModified) {
+            this.key = key;
+            this.buffer = buffer;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public String getDescription() {
+            return "cached document [" + key + "]";
+        }
+
+        @Override
+        public String getFilename() {
+            return key;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return buffer.limit();
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteBufferInputStream(buffer.duplicate());
+        }
+
+        @Override
+        public ReadableByteChannel readableChannel() {
+            return Channels.newChannel(getInputStream());
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
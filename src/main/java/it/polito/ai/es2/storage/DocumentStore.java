@@ -0,0 +1,41 @@
+package it.polito.ai.es2.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Backend holding the bytes of stored documents, addressed by their storage key.
+ * Uploads are first spooled to a temporary file obtained from {@link #createTempFile()} and then handed over with {@link #store}.
+ */
+public interface DocumentStore {
+
+    String TEMP_PREFIX = "upload-";
+
+    Path createTempFile() throws IOException;
+
+    void store(String key, Path source) throws IOException;
+
+    boolean exists(String key) throws IOException;
+
+    Resource load(String key) throws IOException;
+
+    void delete(String key) throws IOException;
+
+    Optional<URI> getLocation(String key, String name, String mimeType, String encoding);
+
+    /**
+     * Keys of the documents stored before the given instant, temporary files excluded.
+     * The stream is backed by the store listing and must be closed.
+     */
+    Stream<String> listKeys(Instant storedBefore) throws IOException;
+
+    default int migrateLayout() throws IOException {
+        return 0;
+    }
+}
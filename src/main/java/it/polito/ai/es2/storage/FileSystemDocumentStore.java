@@ -0,0 +1,137 @@
+package it.polito.ai.es2.storage;
+
+import it.polito.ai.es2.properties.DocumentStorageProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+@Component
+@ConditionalOnProperty(prefix = "document", name = "store", havingValue = "filesystem", matchIfMissing = true)
+public class FileSystemDocumentStore implements DocumentStore {
+
+    private static final int SHARD_WIDTH = 2;
+
+    private final Path docStorageLocation;
+
+    private final int shardDepth;
+
+    @Autowired
+    public FileSystemDocumentStore(DocumentStorageProperty documentStorageProperty) throws IOException {
+        this.docStorageLocation = Paths.get(documentStorageProperty.getUploadDirectory())
+                .toAbsolutePath().normalize();
+        this.shardDepth = documentStorageProperty.getShardDepth();
+        Files.createDirectories(this.docStorageLocation);
+    }
+
+    @Override
+    public Path createTempFile() throws IOException {
+        // Same file system as the final location, so that store() is a rename
+        return Files.createTempFile(this.docStorageLocation, TEMP_PREFIX, null);
+    }
+
+    @Override
+    public void store(String key, Path source) throws IOException {
+        Path targetLocation = shardedLocation(key);
+        Files.createDirectories(targetLocation.getParent());
+        Files.move(source, targetLocation, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return locate(key).isPresent();
+    }
+
+    @Override
+    public Resource load(String key) throws IOException {
+        Path targetLocation = locate(key)
+                .orElseThrow(() -> new NoSuchFileException(shardedLocation(key).toString()));
+        return new FileSystemResource(targetLocation);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Path targetLocation = locate(key)
+                .orElseThrow(() -> new NoSuchFileException(shardedLocation(key).toString()));
+        Files.delete(targetLocation);
+    }
+
+    @Override
+    public Optional<URI> getLocation(String key, String name, String mimeType, String encoding) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Stream<String> listKeys(Instant storedBefore) throws IOException {
+        return Files.walk(this.docStorageLocation)
+                .filter(Files::isRegularFile)
+                .filter(file -> !file.getFileName().toString().startsWith(TEMP_PREFIX))
+                .filter(file -> {
+                    try {
+                        return Files.getLastModifiedTime(file).toInstant().isBefore(storedBefore);
+                    } catch (IOException e) {
+                        // Deleted while walking
+                        return false;
+                    }
+                })
+                .map(file -> file.getFileName().toString());
+    }
+
+    /**
+     * Moves documents still stored in the flat layout into their hash-prefix directories.
+     * Every move is atomic, so the read and delete paths, which look in both layouts, keep working meanwhile.
+     */
+    @Override
+    public int migrateLayout() throws IOException {
+        int moved = 0;
+        if (shardDepth == 0)
+            return moved;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.docStorageLocation, Files::isRegularFile)) {
+            for (Path file : files) {
+                String key = file.getFileName().toString();
+                Path targetLocation = shardedLocation(key);
+                if (key.startsWith(TEMP_PREFIX) || targetLocation.equals(file))
+                    continue;
+                Files.createDirectories(targetLocation.getParent());
+                try {
+                    Files.move(file, targetLocation, StandardCopyOption.ATOMIC_MOVE);
+                    moved++;
+                } catch (NoSuchFileException e) {
+                    // Deleted while the migration was running
+                }
+            }
+        }
+        return moved;
+    }
+
+    private Path shardedLocation(String key) {
+        Path location = this.docStorageLocation;
+        for (int level = 0; level < shardDepth && key.length() >= (level + 1) * SHARD_WIDTH; level++)
+            location = location.resolve(key.substring(level * SHARD_WIDTH, (level + 1) * SHARD_WIDTH));
+        return location.resolve(key);
+    }
+
+    private Optional<Path> locate(String key) {
+        Path shardedLocation = shardedLocation(key);
+        if (Files.isReadable(shardedLocation))
+            return Optional.of(shardedLocation);
+        Path flatLocation = this.docStorageLocation.resolve(key);
+        if (Files.isReadable(flatLocation))
+            return Optional.of(flatLocation);
+        // The migration may have moved the file between the two checks
+        return Files.isReadable(shardedLocation) ? Optional.of(shardedLocation) : Optional.empty();
+    }
+}
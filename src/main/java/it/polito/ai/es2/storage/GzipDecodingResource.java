@@ -0,0 +1,53 @@
+package it.polito.ai.es2.storage;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * View of a gzip-compressed stored document as its original bytes, decompressed while it is read.
+ */
+public class GzipDecodingResource extends AbstractResource {
+
+    private final Resource encoded;
+
+    private final long decodedLength;
+
+    public GzipDecodingResource(Resource encoded, long decodedLength) {
+        this.encoded = encoded;
+        this.decodedLength = decodedLength;
+    }
+
+    @Override
+    public String getDescription() {
+        return "gzip decoded " + encoded.getDescription();
+    }
+
+    @Override
+    public String getFilename() {
+        return encoded.getFilename();
+    }
+
+    @Override
+    public boolean exists() {
+        return encoded.exists();
+    }
+
+    @Override
+    public long contentLength() {
+        return decodedLength;
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return encoded.lastModified();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new GZIPInputStream(encoded.getInputStream());
+    }
+}
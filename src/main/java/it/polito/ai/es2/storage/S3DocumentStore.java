@@ -0,0 +1,278 @@
+package it.polito.ai.es2.storage;
+
+import it.polito.ai.es2.properties.DocumentStorageProperty;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Stores documents as objects of an S3-compatible bucket (AWS S3, MinIO, ...).
+ * Large uploads go through multipart upload, and downloads can be redirected to presigned URLs.
+ */
+@Component
+@ConditionalOnProperty(prefix = "document", name = "store", havingValue = "s3")
+public class S3DocumentStore implements DocumentStore, DisposableBean {
+
+    private static final int NOT_FOUND = 404;
+
+    private final DocumentStorageProperty.S3 properties;
+
+    private final S3Client s3Client;
+
+    private final S3Presigner s3Presigner;
+
+    @Autowired
+    public S3DocumentStore(DocumentStorageProperty documentStorageProperty) {
+        this.properties = documentStorageProperty.getS3();
+
+        AwsCredentialsProvider credentialsProvider = properties.getAccessKey() != null
+                ? StaticCredentialsProvider.create(AwsBasicCredentials.create(properties.getAccessKey(), properties.getSecretKey()))
+                : DefaultCredentialsProvider.create();
+        S3Configuration s3Configuration = S3Configuration.builder()
+                .pathStyleAccessEnabled(properties.isPathStyleAccess())
+                .build();
+
+        S3ClientBuilder clientBuilder = S3Client.builder()
+                .region(Region.of(properties.getRegion()))
+                .credentialsProvider(credentialsProvider)
+                .serviceConfiguration(s3Configuration);
+        S3Presigner.Builder presignerBuilder = S3Presigner.builder()
+                .region(Region.of(properties.getRegion()))
+                .credentialsProvider(credentialsProvider)
+                .serviceConfiguration(s3Configuration);
+        if (properties.getEndpoint() != null) {
+            clientBuilder.endpointOverride(URI.create(properties.getEndpoint()));
+            presignerBuilder.endpointOverride(URI.create(properties.getEndpoint()));
+        }
+        this.s3Client = clientBuilder.build();
+        this.s3Presigner = presignerBuilder.build();
+    }
+
+    @Override
+    public Path createTempFile() throws IOException {
+        return Files.createTempFile(TEMP_PREFIX, null);
+    }
+
+    @Override
+    public void store(String key, Path source) throws IOException {
+        long size = Files.size(source);
+        try {
+            if (size < properties.getMultipartThreshold().toBytes()) {
+                s3Client.putObject(PutObjectRequest.builder()
+                                .bucket(properties.getBucket())
+                                .key(objectKey(key))
+                                .contentLength(size)
+                                .build(),
+                        RequestBody.fromFile(source));
+            } else
+                storeMultipart(objectKey(key), source, size);
+        } catch (SdkException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        return head(key).isPresent();
+    }
+
+    @Override
+    public Resource load(String key) throws IOException {
+        HeadObjectResponse head = head(key)
+                .orElseThrow(() -> new NoSuchFileException(properties.getBucket() + "/" + objectKey(key)));
+        return new S3ObjectResource(objectKey(key), head);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        try {
+            s3Client.deleteObject(DeleteObjectRequest.builder()
+                    .bucket(properties.getBucket())
+                    .key(objectKey(key))
+                    .build());
+        } catch (SdkException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public Optional<URI> getLocation(String key, String name, String mimeType, String encoding) {
+        if (!properties.isPresign())
+            return Optional.empty();
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(properties.getBucket())
+                .key(objectKey(key))
+                .responseContentType(mimeType)
+                .responseContentDisposition("attachment; filename=\"" + name + "\"")
+                .responseContentEncoding(encoding)
+                .build();
+        return Optional.of(URI.create(s3Presigner.presignGetObject(GetObjectPresignRequest.builder()
+                .signatureDuration(properties.getPresignDuration())
+                .getObjectRequest(getObjectRequest)
+                .build()).url().toString()));
+    }
+
+    @Override
+    public Stream<String> listKeys(Instant storedBefore) throws IOException {
+        try {
+            return s3Client.listObjectsV2Paginator(ListObjectsV2Request.builder()
+                            .bucket(properties.getBucket())
+                            .prefix(properties.getKeyPrefix())
+                            .build())
+                    .contents().stream()
+                    .filter(object -> object.lastModified().isBefore(storedBefore))
+                    .map(object -> object.key().substring(properties.getKeyPrefix().length()));
+        } catch (SdkException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        s3Presigner.close();
+        s3Client.close();
+    }
+
+    private String objectKey(String key) {
+        return properties.getKeyPrefix() + key;
+    }
+
+    private Optional<HeadObjectResponse> head(String key) throws IOException {
+        try {
+            return Optional.of(s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(properties.getBucket())
+                    .key(objectKey(key))
+                    .build()));
+        } catch (S3Exception e) {
+            if (e.statusCode() == NOT_FOUND)
+                return Optional.empty();
+            throw new IOException(e);
+        } catch (SdkException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Uploads the file one part at a time, so memory use is bounded by the part size whatever the file size.
+     */
+    private void storeMultipart(String objectKey, Path source, long size) throws IOException {
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(properties.getBucket())
+                .key(objectKey)
+                .build()).uploadId();
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            List<CompletedPart> completedParts = new ArrayList<>();
+            ByteBuffer buffer = ByteBuffer.allocate((int) properties.getPartSize().toBytes());
+            for (int partNumber = 1; channel.position() < size; partNumber++) {
+                buffer.clear();
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) ;
+                buffer.flip();
+                UploadPartResponse uploadPartResponse = s3Client.uploadPart(UploadPartRequest.builder()
+                                .bucket(properties.getBucket())
+                                .key(objectKey)
+                                .uploadId(uploadId)
+                                .partNumber(partNumber)
+                                .contentLength((long) buffer.remaining())
+                                .build(),
+                        RequestBody.fromByteBuffer(buffer));
+                completedParts.add(CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(uploadPartResponse.eTag())
+                        .build());
+            }
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(properties.getBucket())
+                    .key(objectKey)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build());
+        } catch (IOException | SdkException e) {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(properties.getBucket())
+                    .key(objectKey)
+                    .uploadId(uploadId)
+                    .build());
+            throw e;
+        }
+    }
+
+    private class S3ObjectResource extends AbstractResource {
+
+        private final String objectKey;
+
+        private final HeadObjectResponse head;
+
+        S3ObjectResource(String objectKey, HeadObjectResponse head) {
+            this.objectKey = objectKey;
+            this.head = head;
+        }
+
+        @Override
+        public String getDescription() {
+            return "S3 object [" + properties.getBucket() + "/" + objectKey + "]";
+        }
+
+        @Override
+        public String getFilename() {
+            return objectKey;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return head.contentLength();
+        }
+
+        @Override
+        public long lastModified() {
+            return head.lastModified().toEpochMilli();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            try {
+                return s3Client.getObject(GetObjectRequest.builder()
+                        .bucket(properties.getBucket())
+                        .key(objectKey)
+                        .build());
+            } catch (SdkException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,3 @@
+package it.polito.ai.es2.utility;
+
+public enum EnrollmentStatus { ENROLLED, ALREADY_ENROLLED, INVALID }
@@ -7,4 +7,6 @@ import lombok.Data;
 @AllArgsConstructor
 public class JwtResponse {
     private final String token;
+
+    private final String refreshToken;
 }
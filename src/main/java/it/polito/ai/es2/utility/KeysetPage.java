@@ -0,0 +1,26 @@
+package it.polito.ai.es2.utility;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * One page of a keyset-paginated listing, with the opaque cursors of the pages around it (null at either end).
+ */
+@Data
+@AllArgsConstructor
+public class KeysetPage<T> {
+
+    private List<T> content;
+
+    private String next;
+
+    private String previous;
+
+    public <R> KeysetPage<R> map(Function<? super T, ? extends R> mapper) {
+        return new KeysetPage<>(content.stream().map(mapper).collect(Collectors.toList()), next, previous);
+    }
+}
@@ -0,0 +1,83 @@
+package it.polito.ai.es2.utility;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Course memberships carried by an access token. The sorted course ids are encoded as base64url
+ * of the varint deltas between consecutive ids, a few bytes per course.
+ */
+public class MembershipClaims {
+
+    public static final String COURSES_CLAIM = "crs";
+
+    public static final String VERSION_CLAIM = "mv";
+
+    private final long[] courseIds;
+
+    private final long version;
+
+    private Boolean current;
+
+    public MembershipClaims(String encodedCourseIds, long version) {
+        this.courseIds = decode(encodedCourseIds);
+        this.version = version;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Compares the version stamp with the current one, looked up only the first time for this authentication,
+     * that is once per request.
+     */
+    public synchronized boolean isCurrent(Supplier<Optional<Long>> currentVersion) {
+        if (current == null)
+            current = currentVersion.get().map(v -> v == version).orElse(false);
+        return current;
+    }
+
+    public boolean hasCourse(Long courseId) {
+        return Arrays.binarySearch(courseIds, courseId) >= 0;
+    }
+
+    public static String encode(Collection<Long> courseIds) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long previous = 0;
+        for (long courseId : courseIds.stream().mapToLong(Long::longValue).sorted().distinct().toArray()) {
+            long delta = courseId - previous;
+            while ((delta & ~0x7FL) != 0) {
+                bytes.write((int) ((delta & 0x7F) | 0x80));
+                delta >>>= 7;
+            }
+            bytes.write((int) delta);
+            previous = courseId;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    private static long[] decode(String encodedCourseIds) {
+        byte[] bytes = Base64.getUrlDecoder().decode(encodedCourseIds);
+        long[] decoded = new long[bytes.length];
+        int count = 0;
+        long previous = 0;
+        for (int i = 0; i < bytes.length; ) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[i++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0 && i < bytes.length);
+            previous += delta;
+            decoded[count++] = previous;
+        }
+        return Arrays.copyOf(decoded, count);
+    }
+}
@@ -0,0 +1,85 @@
+package it.polito.ai.es2;
+
+import it.polito.ai.es2.entities.Course;
+import it.polito.ai.es2.entities.Student;
+import it.polito.ai.es2.entities.Teacher;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.EntityManagerFactory;
+
+import java.util.ArrayList;
+
+/**
+ * JPA slice on the in-memory database of the test profile, with the fixtures the tests share.
+ * Subclasses import the components under test.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Import(JpaTestConfiguration.class)
+public abstract class AbstractJpaTests {
+
+    @Autowired
+    protected TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    protected static Course course() {
+        Course course = new Course();
+        course.setName("Applicazioni Internet");
+        course.setAcronym("AI");
+        course.setMin(1);
+        course.setMax(4);
+        course.setEnabled(true);
+        course.setVcpu(8);
+        course.setDisk(100f);
+        course.setMemory(16f);
+        course.setMaxVmInstance(4);
+        course.setMaxRunningVmInstance(2);
+        course.setAssignments(new ArrayList<>());
+        return course;
+    }
+
+    protected static Student student(String id) {
+        Student student = new Student();
+        student.setId(id);
+        student.setFirstName("Student");
+        student.setLastName(id);
+        student.setEmail(id + "@studenti.polito.it");
+        return student;
+    }
+
+    protected static Teacher teacher(String id) {
+        Teacher teacher = new Teacher();
+        teacher.setId(id);
+        teacher.setFirstName("Teacher");
+        teacher.setLastName(id);
+        teacher.setEmail(id + "@polito.it");
+        return teacher;
+    }
+
+    /**
+     * Writes the fixtures and detaches them, so that the test reads them back from the database.
+     */
+    protected void flushAndClear() {
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    /**
+     * Returns the Hibernate statistics, cleared, to count the statements of what follows.
+     */
+    protected Statistics clearedStatistics() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        return statistics;
+    }
+}
@@ -0,0 +1,22 @@
+package it.polito.ai.es2;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.polito.ai.es2.components.PasswordCostCalibrator;
+import it.polito.ai.es2.components.PasswordHashingExecutor;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Beans that {@link Es2Application} needs but a JPA test slice does not scan.
+ */
+@TestConfiguration
+@Import({PasswordCostCalibrator.class, PasswordHashingExecutor.class})
+public class JpaTestConfiguration {
+
+    @Bean
+    MeterRegistry meterRegistry() {
+        return new SimpleMeterRegistry();
+    }
+}
@@ -0,0 +1,82 @@
+package it.polito.ai.es2.components;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A verifier-only node picks up a rotated key with the first token signed with it, and fetches the key set
+ * at most once for an unknown key id.
+ */
+class JwtKeySetTests {
+
+    private final JwtKeySet signingKeySet = keySet("");
+
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    private HttpServer server;
+
+    private JwtKeySet verifyingKeySet;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        signingKeySet.init();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/auth/jwks", exchange -> {
+            fetches.incrementAndGet();
+            byte[] body = new ObjectMapper().writeValueAsBytes(signingKeySet.toJwks());
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        server.start();
+        verifyingKeySet = keySet("http://localhost:" + server.getAddress().getPort() + "/auth/jwks");
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        verifyingKeySet.destroy();
+        signingKeySet.destroy();
+    }
+
+    @Test
+    void keyRotatedRightAfterAFetchIsPickedUp() throws Exception {
+        assertTrue(verifyingKeySet.getVerificationKey(signingKeySet.getSigningKey().getKeyId()).isPresent());
+
+        signingKeySet.rotate();
+        Thread.sleep(1100);
+
+        assertTrue(verifyingKeySet.getVerificationKey(signingKeySet.getSigningKey().getKeyId()).isPresent());
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    void unknownKeyIdIsFetchedOnce() throws Exception {
+        assertFalse(verifyingKeySet.getVerificationKey("unknown").isPresent());
+        Thread.sleep(1100);
+
+        assertFalse(verifyingKeySet.getVerificationKey("unknown").isPresent());
+        assertEquals(1, fetches.get());
+    }
+
+    private static JwtKeySet keySet(String jwksUri) {
+        JwtKeySet keySet = new JwtKeySet();
+        ReflectionTestUtils.setField(keySet, "algorithm", JwtKeySet.RS256);
+        ReflectionTestUtils.setField(keySet, "keySize", 2048);
+        ReflectionTestUtils.setField(keySet, "validityInMilliseconds", 900_000L);
+        ReflectionTestUtils.setField(keySet, "jwksUri", jwksUri);
+        return keySet;
+    }
+}
@@ -0,0 +1,34 @@
+package it.polito.ai.es2.components;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Revoking a user revokes every token issued up to the revocation, whatever the resolution of the issue time.
+ */
+class TokenDenylistTests {
+
+    private final TokenDenylist tokenDenylist = new TokenDenylist();
+
+    @Test
+    void tokenIssuedInTheSameSecondIsRevoked() {
+        Instant issuedAt = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+
+        tokenDenylist.revokeUser("s1");
+
+        assertTrue(tokenDenylist.isRevoked(null, "s1", issuedAt));
+    }
+
+    @Test
+    void laterTokensAndOtherUsersAreNotRevoked() {
+        tokenDenylist.revokeUser("s1");
+
+        assertFalse(tokenDenylist.isRevoked(null, "s1", Instant.now().plusSeconds(1)));
+        assertFalse(tokenDenylist.isRevoked(null, "s2", Instant.now().minusSeconds(1)));
+    }
+}
@@ -0,0 +1,104 @@
+package it.polito.ai.es2.configurations;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.security.access.expression.method.DefaultMethodSecurityExpressionHandler;
+import org.springframework.security.access.expression.method.ExpressionBasedAnnotationAttributeFactory;
+import org.springframework.security.access.expression.method.ExpressionBasedPreInvocationAdvice;
+import org.springframework.security.access.prepost.PreInvocationAttribute;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.util.SimpleMethodInvocation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the default evaluation of a {@code @PreAuthorize} of the team service with the role-guarded one,
+ * for each role. Run it with {@code mvn test-compile} and then the {@link #main} method, with the test
+ * classpath: {@code java -cp target/test-classes:target/classes:<dependencies> ...PreAuthorizeBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreAuthorizeBenchmark {
+
+    private static final String TEACHER_OR_ADMIN = "(hasRole('ROLE_TEACHER') and @permissionEvaluator.teacherHasCourse(authentication.principal.username,#courseId)) or hasRole('ROLE_ADMIN')";
+
+    @Param({"ROLE_ADMIN", "ROLE_TEACHER", "ROLE_STUDENT"})
+    public String role;
+
+    private ExpressionBasedPreInvocationAdvice defaultAdvice;
+
+    private RoleGuardedPreInvocationAdvice roleGuardedAdvice;
+
+    private PreInvocationAttribute defaultAttribute;
+
+    private PreInvocationAttribute roleGuardedAttribute;
+
+    private Authentication authentication;
+
+    private SimpleMethodInvocation invocation;
+
+    private GenericApplicationContext context;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        context = new GenericApplicationContext();
+        context.registerBean("permissionEvaluator", CourseOwnership.class);
+        context.refresh();
+        DefaultMethodSecurityExpressionHandler expressionHandler = new DefaultMethodSecurityExpressionHandler();
+        expressionHandler.setApplicationContext(context);
+
+        defaultAdvice = new ExpressionBasedPreInvocationAdvice();
+        defaultAdvice.setExpressionHandler(expressionHandler);
+        roleGuardedAdvice = new RoleGuardedPreInvocationAdvice(defaultAdvice, null, "ROLE_");
+        defaultAttribute = new ExpressionBasedAnnotationAttributeFactory(expressionHandler)
+                .createPreInvocationAttribute(null, null, TEACHER_OR_ADMIN);
+        roleGuardedAttribute = new RoleGuardedPreInvocationAdvice.AttributeFactory(expressionHandler)
+                .createPreInvocationAttribute(null, null, TEACHER_OR_ADMIN);
+
+        UserDetails user = User.withUsername("d1").password("").authorities(role).build();
+        authentication = new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+        invocation = new SimpleMethodInvocation(new Courses(), Courses.class.getMethod("enableCourse", Long.class), 1L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public boolean defaultEvaluation() {
+        return defaultAdvice.before(authentication, invocation, defaultAttribute);
+    }
+
+    @Benchmark
+    public boolean roleGuardedEvaluation() {
+        return roleGuardedAdvice.before(authentication, invocation, roleGuardedAttribute);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PreAuthorizeBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    public static class Courses {
+
+        public void enableCourse(Long courseId) {
+        }
+    }
+
+    public static class CourseOwnership {
+
+        public boolean teacherHasCourse(String teacherId, Long courseId) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package it.polito.ai.es2.configurations;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.access.expression.method.DefaultMethodSecurityExpressionHandler;
+import org.springframework.security.access.prepost.PreInvocationAttribute;
+import org.springframework.security.access.prepost.PreInvocationAuthorizationAdvice;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * The expression is only evaluated when the roles of the caller do not settle it.
+ */
+class RoleGuardedPreInvocationAdviceTests {
+
+    private static final String TEACHER_OR_ADMIN = "(hasRole('ROLE_TEACHER') and @permissionEvaluator.teacherHasCourse(authentication.principal.username,#courseId)) or hasRole('ROLE_ADMIN')";
+
+    private final RoleGuardedPreInvocationAdvice.AttributeFactory attributeFactory =
+            new RoleGuardedPreInvocationAdvice.AttributeFactory(new DefaultMethodSecurityExpressionHandler());
+
+    private final PreInvocationAuthorizationAdvice delegate = mock(PreInvocationAuthorizationAdvice.class);
+
+    private final RoleGuardedPreInvocationAdvice advice = new RoleGuardedPreInvocationAdvice(delegate, null, "ROLE_");
+
+    private final MethodInvocation mi = mock(MethodInvocation.class);
+
+    @Test
+    void settlingRoleAllowsWithoutEvaluation() {
+        assertTrue(advice.before(caller("ROLE_ADMIN"), mi, preAuthorize(TEACHER_OR_ADMIN)));
+        verifyNoInteractions(delegate);
+    }
+
+    @Test
+    void missingRolesDenyWithoutEvaluation() {
+        assertFalse(advice.before(caller("ROLE_STUDENT"), mi, preAuthorize(TEACHER_OR_ADMIN)));
+        verifyNoInteractions(delegate);
+    }
+
+    @Test
+    void undecidedExpressionIsEvaluated() {
+        when(delegate.before(any(), any(), any())).thenReturn(true);
+
+        assertTrue(advice.before(caller("ROLE_TEACHER"), mi, preAuthorize(TEACHER_OR_ADMIN)));
+        verify(delegate).before(any(), any(), any());
+    }
+
+    @Test
+    void rolesWithoutPrefixAndNegationAreUnderstood() {
+        assertFalse(advice.before(caller("ROLE_STUDENT"), mi, preAuthorize("!hasAnyRole('TEACHER', 'STUDENT')")));
+        assertTrue(advice.before(caller("ROLE_ADMIN"), mi, preAuthorize("!hasAnyRole('TEACHER', 'STUDENT')")));
+        verifyNoInteractions(delegate);
+    }
+
+    @Test
+    void expressionWithoutRolesIsEvaluated() {
+        advice.before(caller("ROLE_ADMIN"), mi, preAuthorize("#studentId == authentication.principal.username"));
+        verify(delegate).before(any(), any(), any());
+    }
+
+    @Test
+    void allowedCallStillRunsItsPreFilter() {
+        PreInvocationAttribute attribute = attributeFactory.createPreInvocationAttribute("filterObject != null", null, "hasRole('ROLE_ADMIN')");
+
+        advice.before(caller("ROLE_ADMIN"), mi, attribute);
+        verify(delegate).before(any(), any(), any());
+    }
+
+    private PreInvocationAttribute preAuthorize(String expression) {
+        return attributeFactory.createPreInvocationAttribute(null, null, expression);
+    }
+
+    private static Authentication caller(String role) {
+        return new UsernamePasswordAuthenticationToken("user", null, AuthorityUtils.createAuthorityList(role));
+    }
+}
@@ -0,0 +1,118 @@
+package it.polito.ai.es2.repositories;
+
+import it.polito.ai.es2.AbstractJpaTests;
+import it.polito.ai.es2.dtos.CourseDTO;
+import it.polito.ai.es2.dtos.StudentDTO;
+import it.polito.ai.es2.dtos.TeacherDTO;
+import it.polito.ai.es2.dtos.TeamDTO;
+import it.polito.ai.es2.entities.Course;
+import it.polito.ai.es2.entities.Student;
+import it.polito.ai.es2.entities.Teacher;
+import it.polito.ai.es2.entities.Team;
+import it.polito.ai.es2.entities.User;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Listings are loaded in a constant number of statements whatever the number of rows: the course and team
+ * listings through DTO projections, the keyset pages of users together with their roles.
+ */
+@Import(KeysetPaginator.class)
+class ListingQueryCountTests extends AbstractJpaTests {
+
+    private static final int ROWS = 5;
+
+    @Autowired
+    CourseRepository courseRepo;
+
+    @Autowired
+    TeacherRepository teacherRepo;
+
+    @Autowired
+    KeysetPaginator keysetPaginator;
+
+    private Statistics statistics;
+
+    private Long courseId;
+
+    @BeforeEach
+    void setUp() {
+        Course course = course();
+        entityManager.persist(course);
+        for (int i = 0; i < ROWS; i++) {
+            Student student = student("s" + i);
+            student.addCourse(course);
+            entityManager.persist(student);
+
+            Teacher teacher = teacher("d" + i);
+            teacher.addCourse(course);
+            entityManager.persist(teacher);
+
+            Team team = new Team("team" + i, 4, 8f, 50f, course);
+            team.addMember(student);
+            entityManager.persist(team);
+
+            entityManager.persist(User.builder()
+                    .username("s" + i)
+                    .password("{noop}password")
+                    .roles(List.of("ROLE_STUDENT"))
+                    .build());
+        }
+        flushAndClear();
+        courseId = course.getId();
+        statistics = clearedStatistics();
+    }
+
+    @Test
+    void studentsOfCourseInOneStatement() {
+        List<StudentDTO> students = courseRepo.findStudentsOfCourse(courseId);
+
+        assertEquals(ROWS, students.size());
+        assertEquals("s0@studenti.polito.it", students.get(0).getEmail());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void teachersOfCourseInOneStatement() {
+        List<TeacherDTO> teachers = courseRepo.findTeachersOfCourse(courseId);
+
+        assertEquals(ROWS, teachers.size());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void teamsOfCourseInOneStatement() {
+        List<TeamDTO> teams = courseRepo.findTeamsOfCourse(courseId);
+
+        assertEquals(ROWS, teams.size());
+        assertEquals(List.of("team0", "team1", "team2", "team3", "team4"),
+                teams.stream().map(TeamDTO::getName).collect(Collectors.toList()));
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void coursesOfTeacherInOneStatement() {
+        List<CourseDTO> courses = teacherRepo.findCoursesOfTeacher("d0");
+
+        assertEquals(1, courses.size());
+        assertEquals("AI", courses.get(0).getAcronym());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void usersPageWithRolesInTwoStatements() {
+        List<User> users = keysetPaginator.findPage(User.class, null, null, null, KeysetPaginator.MAX_LIMIT).getContent();
+
+        assertEquals(ROWS, users.size());
+        users.forEach(user -> assertEquals(List.of("ROLE_STUDENT"), user.getRoles()));
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+}
@@ -0,0 +1,29 @@
+package it.polito.ai.es2.services;
+
+import it.polito.ai.es2.AbstractJpaTests;
+import it.polito.ai.es2.repositories.KeysetPaginator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+
+/**
+ * {@link TeamServiceImpl} on the JPA slice, with the services it calls besides the repositories mocked.
+ */
+@Import({TeamServiceImpl.class, KeysetPaginator.class})
+abstract class AbstractTeamServiceTests extends AbstractJpaTests {
+
+    @Autowired
+    TeamService teamService;
+
+    @MockBean
+    NotificationService notificationService;
+
+    @MockBean
+    UserManagementService userManagementService;
+
+    @MockBean
+    DocumentService documentService;
+
+    @MockBean(name = "permissionEvaluator")
+    PermissionEvaluatorImpl permissionEvaluator;
+}
@@ -0,0 +1,98 @@
+package it.polito.ai.es2.services;
+
+import it.polito.ai.es2.AbstractJpaTests;
+import it.polito.ai.es2.components.DocumentCleaner;
+import it.polito.ai.es2.components.DocumentOrphanChecker;
+import it.polito.ai.es2.entities.Document;
+import it.polito.ai.es2.properties.DocumentStorageProperty;
+import it.polito.ai.es2.repositories.DocumentBlobRepository;
+import it.polito.ai.es2.storage.DocumentContentCache;
+import it.polito.ai.es2.storage.DocumentStore;
+import it.polito.ai.es2.storage.FileSystemDocumentStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.StreamUtils;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Content-addressed storage: identical uploads share one stored blob, counted by reference.
+ */
+@Import({DocumentServiceImpl.class, DocumentStorageProperty.class,
+        FileSystemDocumentStore.class, DocumentCleaner.class, DocumentOrphanChecker.class, DocumentContentCache.class})
+class DocumentServiceTests extends AbstractJpaTests {
+
+    private static final byte[] CONTENT = "Homework of the first assignment".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    static Path uploadDirectory;
+
+    @DynamicPropertySource
+    static void documentProperties(DynamicPropertyRegistry registry) {
+        registry.add("document.upload-directory", uploadDirectory::toString);
+        registry.add("document.content-addressed", () -> "true");
+    }
+
+    @Autowired
+    DocumentService documentService;
+
+    @Autowired
+    DocumentOrphanChecker documentOrphanChecker;
+
+    @Autowired
+    DocumentBlobRepository blobRepo;
+
+    @Autowired
+    DocumentStore documentStore;
+
+    @Test
+    void identicalUploadsShareOneBlob() throws Exception {
+        Document first = documentService.addDocument(upload("first.txt"), null);
+        Document second = documentService.addDocument(upload("second.txt"), null);
+
+        assertNotEquals(first.getId(), second.getId());
+        assertEquals(first.getContentHash(), second.getContentHash());
+        assertEquals(2, blobRepo.findById(first.getContentHash()).orElseThrow().getRefCount());
+        assertEquals(1, storedKeys());
+        try (InputStream inputStream = documentService.getDocumentContent(second).getInputStream()) {
+            assertArrayEquals(CONTENT, StreamUtils.copyToByteArray(inputStream));
+        }
+    }
+
+    @Test
+    void blobIsKeptUntilItsLastDocumentIsRemoved() throws Exception {
+        Document first = documentService.addDocument(upload("first.txt"), null);
+        Document second = documentService.addDocument(upload("second.txt"), null);
+        String contentHash = first.getContentHash();
+
+        documentService.removeDocument(first);
+        entityManager.clear();
+        assertEquals(1, blobRepo.findById(contentHash).orElseThrow().getRefCount());
+        assertFalse(documentOrphanChecker.deleteIfOrphaned(contentHash));
+
+        documentService.removeDocument(second);
+        entityManager.clear();
+        assertFalse(blobRepo.findById(contentHash).isPresent());
+    }
+
+    private static MockMultipartFile upload(String name) {
+        return new MockMultipartFile("file", name, "text/plain", CONTENT);
+    }
+
+    private long storedKeys() throws Exception {
+        try (Stream<String> keys = documentStore.listKeys(Instant.now().plusSeconds(60))) {
+            return keys.count();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package it.polito.ai.es2.services;
+
+import it.polito.ai.es2.entities.Course;
+import it.polito.ai.es2.entities.Student;
+import it.polito.ai.es2.entities.Teacher;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Enrolling one student or teacher writes one join row, whatever the size of the course: the members of the
+ * course are never loaded.
+ */
+class EnrollmentQueryCountTests extends AbstractTeamServiceTests {
+
+    private static final int ENROLLED = 50;
+
+    private Long courseId;
+
+    @BeforeEach
+    void setUp() {
+        Course course = course();
+        entityManager.persist(course);
+        for (int i = 0; i < ENROLLED; i++) {
+            Student student = student("s" + i);
+            student.addCourse(course);
+            entityManager.persist(student);
+
+            Teacher teacher = teacher("d" + i);
+            teacher.addCourse(course);
+            entityManager.persist(teacher);
+        }
+        entityManager.persist(student("s999"));
+        entityManager.persist(teacher("d999"));
+        flushAndClear();
+        courseId = course.getId();
+    }
+
+    @Test
+    void studentIsEnrolledWithoutLoadingTheCourseMembers() {
+        Statistics statistics = clearedStatistics();
+
+        teamService.addStudentToCourse("s999", courseId);
+        entityManager.flush();
+
+        // student, course, courses of the student, membership check, assignments of the course, join row
+        assertEquals(6, statistics.getPrepareStatementCount());
+        assertEquals(2, statistics.getEntityLoadCount());
+        assertEquals(2, statistics.getCollectionLoadCount());
+    }
+
+    @Test
+    void teacherIsAddedWithoutLoadingTheCourseMembers() {
+        Statistics statistics = clearedStatistics();
+
+        teamService.addTeacherToCourse("d999", courseId);
+        entityManager.flush();
+
+        // teacher, course, courses of the teacher, membership check, join row
+        assertEquals(5, statistics.getPrepareStatementCount());
+        assertEquals(2, statistics.getEntityLoadCount());
+        assertEquals(1, statistics.getCollectionLoadCount());
+    }
+}
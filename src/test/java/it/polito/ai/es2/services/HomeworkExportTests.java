@@ -0,0 +1,100 @@
+package it.polito.ai.es2.services;
+
+import it.polito.ai.es2.dtos.DocumentDTO;
+import it.polito.ai.es2.entities.*;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The export picks the latest submission of each homework by its timestamp, and reads the submissions of all the
+ * homeworks of the assignment in one statement.
+ */
+class HomeworkExportTests extends AbstractTeamServiceTests {
+
+    private static final int STUDENTS = 5;
+
+    private static final long NOW = System.currentTimeMillis();
+
+    private Long courseId;
+
+    private Long assignmentId;
+
+    @BeforeEach
+    void setUp() {
+        Course course = course();
+        entityManager.persist(course);
+        Assignment assignment = new Assignment();
+        assignment.setName("Lab 1");
+        assignment.setReleaseDate(new Timestamp(NOW));
+        assignment.setExpiryDate(new Timestamp(NOW + 86_400_000));
+        course.addAssignment(assignment);
+        entityManager.persist(assignment);
+
+        for (int i = 0; i < STUDENTS; i++) {
+            Student student = student("s" + i);
+            student.addCourse(course);
+            entityManager.persist(student);
+            Homework homework = new Homework();
+            homework.setAssignment_id(assignment.getId());
+            homework.setStudent_id(student.getId());
+            homework.setCurrentStatus(Homework.homeworkStatus.SUBMITTED);
+            entityManager.persist(homework);
+
+            // The later submission is persisted first, so it has the lower id
+            submit(homework, "late", NOW + 60_000, Homework.homeworkStatus.SUBMITTED);
+            submit(homework, "early", NOW, Homework.homeworkStatus.SUBMITTED);
+            submit(homework, "review", NOW + 120_000, Homework.homeworkStatus.REVIEWED);
+        }
+        flushAndClear();
+        courseId = course.getId();
+        assignmentId = assignment.getId();
+    }
+
+    @Test
+    void latestSubmissionsByTimestampInOneStatement() throws Exception {
+        Statistics statistics = clearedStatistics();
+
+        List<DocumentDTO> documents = teamService.getHomeworkDocumentsOfAssignment(courseId, assignmentId, false);
+
+        assertEquals(STUDENTS, documents.size());
+        documents.forEach(document -> assertEquals("late", document.getName().substring(document.getName().indexOf('-') + 1)));
+        // course, assignment, assignments of the course and the submissions with everything they refer to
+        assertEquals(4, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void allSubmissionsLatestFirst() throws Exception {
+        Statistics statistics = clearedStatistics();
+
+        List<DocumentDTO> documents = teamService.getHomeworkDocumentsOfAssignment(courseId, assignmentId, true);
+
+        assertEquals(2 * STUDENTS, documents.size());
+        assertEquals(List.of("late", "early"), documents.stream()
+                .limit(2)
+                .map(document -> document.getName().substring(document.getName().indexOf('-') + 1))
+                .collect(Collectors.toList()));
+        assertEquals(4, statistics.getPrepareStatementCount());
+    }
+
+    private void submit(Homework homework, String name, long timestamp, Homework.homeworkStatus status) {
+        Document document = new Document();
+        document.setName(name);
+        document.setMimeType("text/plain");
+        document.setHash(homework.getStudent_id() + "-" + name);
+        entityManager.persist(document);
+
+        HomeworkVersion version = new HomeworkVersion();
+        version.setTimestamp(new Timestamp(timestamp));
+        version.setVersionStatus(status);
+        version.setContent(document);
+        version.setHomework(homework);
+        entityManager.persist(version);
+    }
+}
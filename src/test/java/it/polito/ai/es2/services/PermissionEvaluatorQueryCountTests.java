@@ -0,0 +1,96 @@
+package it.polito.ai.es2.services;
+
+import it.polito.ai.es2.AbstractJpaTests;
+import it.polito.ai.es2.entities.Course;
+import it.polito.ai.es2.entities.Teacher;
+import it.polito.ai.es2.utility.MembershipClaims;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A request carrying current membership claims is authorized without reading the memberships: the version stamp
+ * is read once for all the requests of the user, and not at all once the membership itself is cached.
+ */
+@Import(PermissionEvaluatorImpl.class)
+class PermissionEvaluatorQueryCountTests extends AbstractJpaTests {
+
+    @Autowired
+    PermissionEvaluatorImpl permissionEvaluator;
+
+    private Long courseId;
+
+    @BeforeEach
+    void setUp() {
+        Course course = course();
+        entityManager.persist(course);
+        Teacher teacher = teacher("d1");
+        teacher.addCourse(course);
+        entityManager.persist(teacher);
+        flushAndClear();
+        courseId = course.getId();
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void currentTokenIsCheckedOnceForAllRequests() {
+        Statistics statistics = clearedStatistics();
+
+        for (int request = 0; request < 3; request++) {
+            authenticate("d1", 0);
+            assertTrue(permissionEvaluator.teacherHasCourse("d1", courseId));
+        }
+
+        // the version stamp of the teacher, once
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void cachedMembershipIsCheckedBeforeTheToken() {
+        assertTrue(permissionEvaluator.teacherHasCourse("d1", courseId));
+        Statistics statistics = clearedStatistics();
+
+        authenticate("d1", 0);
+        assertTrue(permissionEvaluator.teacherHasCourse("d1", courseId));
+
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void changedMembershipsMakeTheTokenStale() {
+        authenticate("d1", 0);
+        assertTrue(permissionEvaluator.teacherHasCourse("d1", courseId));
+        permissionEvaluator.membershipsChanged("d1");
+        Statistics statistics = clearedStatistics();
+
+        authenticate("d1", 0);
+        assertTrue(permissionEvaluator.teacherHasCourse("d1", courseId));
+
+        // the version stamp, read again, and then the membership itself
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    private void authenticate(String username, long membershipVersion) {
+        UserDetails user = User.withUsername(username).password("").authorities("ROLE_TEACHER").build();
+        UsernamePasswordAuthenticationToken authentication =
+                new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+        authentication.setDetails(new MembershipClaims(MembershipClaims.encode(Collections.singleton(courseId)), membershipVersion));
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+    }
+}
@@ -0,0 +1,85 @@
+package it.polito.ai.es2.services;
+
+import it.polito.ai.es2.AbstractJpaTests;
+import it.polito.ai.es2.components.JwtTokenProvider;
+import it.polito.ai.es2.exceptions.InvalidRefreshTokenException;
+import it.polito.ai.es2.utility.JwtResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.when;
+
+/**
+ * Refresh tokens rotate on every use, and a token presented twice revokes its whole family.
+ */
+@TestPropertySource(properties = "security.jwt.token.membership-claims=false")
+@Import(RefreshTokenServiceImpl.class)
+class RefreshTokenServiceTests extends AbstractJpaTests {
+
+    private static final String USERNAME = "s123456";
+
+    @Autowired
+    RefreshTokenService refreshTokenService;
+
+    @MockBean
+    UserDetailsServiceImpl userDetailsService;
+
+    @MockBean
+    JwtTokenProvider jwtTokenProvider;
+
+    @BeforeEach
+    void setUp() {
+        when(userDetailsService.loadUserByUsername(USERNAME))
+                .thenReturn(User.withUsername(USERNAME).password("").roles("STUDENT").build());
+        when(jwtTokenProvider.createToken(eq(USERNAME), anyList())).thenReturn("access-token");
+    }
+
+    @Test
+    void refreshRotatesTheToken() {
+        JwtResponse login = refreshTokenService.login(USERNAME);
+        JwtResponse refreshed = refreshTokenService.refresh(login.getRefreshToken());
+
+        assertEquals("access-token", refreshed.getToken());
+        assertNotEquals(login.getRefreshToken(), refreshed.getRefreshToken());
+        assertNotNull(refreshTokenService.refresh(refreshed.getRefreshToken()).getRefreshToken());
+    }
+
+    @Test
+    void reusedTokenRevokesItsFamily() {
+        JwtResponse login = refreshTokenService.login(USERNAME);
+        JwtResponse refreshed = refreshTokenService.refresh(login.getRefreshToken());
+
+        assertThrows(InvalidRefreshTokenException.class, () -> refreshTokenService.refresh(login.getRefreshToken()));
+        assertThrows(InvalidRefreshTokenException.class, () -> refreshTokenService.refresh(refreshed.getRefreshToken()));
+    }
+
+    @Test
+    void otherFamiliesSurviveAReuse() {
+        JwtResponse first = refreshTokenService.login(USERNAME);
+        JwtResponse second = refreshTokenService.login(USERNAME);
+        refreshTokenService.refresh(first.getRefreshToken());
+
+        assertThrows(InvalidRefreshTokenException.class, () -> refreshTokenService.refresh(first.getRefreshToken()));
+        assertNotNull(refreshTokenService.refresh(second.getRefreshToken()).getRefreshToken());
+    }
+
+    @Test
+    void revokedTokenIsRejected() {
+        JwtResponse login = refreshTokenService.login(USERNAME);
+        refreshTokenService.revoke(login.getRefreshToken());
+
+        assertThrows(InvalidRefreshTokenException.class, () -> refreshTokenService.refresh(login.getRefreshToken()));
+    }
+
+    @Test
+    void unknownTokenIsRejected() {
+        assertThrows(InvalidRefreshTokenException.class, () -> refreshTokenService.refresh("not-a-refresh-token"));
+    }
+}
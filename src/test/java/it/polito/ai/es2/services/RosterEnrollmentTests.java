@@ -0,0 +1,158 @@
+package it.polito.ai.es2.services;
+
+import it.polito.ai.es2.dtos.EnrollmentResultDTO;
+import it.polito.ai.es2.entities.Assignment;
+import it.polito.ai.es2.entities.Course;
+import it.polito.ai.es2.entities.Homework;
+import it.polito.ai.es2.entities.Student;
+import it.polito.ai.es2.repositories.HomeworkRepository;
+import it.polito.ai.es2.repositories.StudentRepository;
+import it.polito.ai.es2.utility.EnrollmentStatus;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.jdbc.JdbcTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.StringReader;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * A roster is enrolled row by row: rows that cannot be enrolled are reported without failing the others.
+ * The roster is enrolled in chunks, each in its own transaction, so the fixtures are committed rather than
+ * rolled back with the test, and deleted after it.
+ */
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RosterEnrollmentTests extends AbstractTeamServiceTests {
+
+    private static final String HEADER = "id,lastName,firstName,email\n";
+
+    /**
+     * One more row than a chunk, so that the roster is enrolled in two
+     */
+    private static final int ROSTER_SIZE = 501;
+
+    @Autowired
+    StudentRepository studentRepo;
+
+    @Autowired
+    HomeworkRepository homeworkRepo;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @SpyBean
+    JdbcTemplate jdbcTemplate;
+
+    private Long courseId;
+
+    @BeforeEach
+    void setUp() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> persistFixtures());
+    }
+
+    @AfterEach
+    void tearDown() {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, "homework", "student_course", "student", "assignment", "course");
+    }
+
+    private void persistFixtures() {
+        Course course = course();
+        entityManager.persist(course);
+
+        Assignment assignment = new Assignment();
+        assignment.setName("Lab 1");
+        assignment.setReleaseDate(new Timestamp(System.currentTimeMillis()));
+        assignment.setExpiryDate(new Timestamp(System.currentTimeMillis() + 86_400_000));
+        course.addAssignment(assignment);
+        entityManager.persist(assignment);
+
+        entityManager.persist(student("s1"));
+        Student enrolled = student("s2");
+        enrolled.addCourse(course);
+        entityManager.persist(enrolled);
+        flushAndClear();
+        courseId = course.getId();
+    }
+
+    @Test
+    void eachRowGetsItsOutcome() throws Exception {
+        List<EnrollmentResultDTO> results = teamService.addAndEnroll(new StringReader(HEADER +
+                "s1,Rossi,Mario,s1@studenti.polito.it\n" +
+                "s2,Bianchi,Anna,s2@studenti.polito.it\n" +
+                "s3,Verdi,Luca,s3@studenti.polito.it\n" +
+                "s3,Verdi,Luca,s3@studenti.polito.it\n" +
+                "s4,Neri,,s4@studenti.polito.it\n" +
+                "s5,Gialli,Paolo\n" +
+                "s6,Blu,Sara,not-an-email\n"), courseId);
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L),
+                results.stream().map(EnrollmentResultDTO::getRow).collect(Collectors.toList()));
+        assertEquals(List.of(EnrollmentStatus.ENROLLED, EnrollmentStatus.ALREADY_ENROLLED, EnrollmentStatus.ENROLLED,
+                EnrollmentStatus.ALREADY_ENROLLED, EnrollmentStatus.INVALID, EnrollmentStatus.INVALID, EnrollmentStatus.INVALID),
+                results.stream().map(EnrollmentResultDTO::getStatus).collect(Collectors.toList()));
+        assertEquals("Repeated from row 3", results.get(3).getMessage());
+        assertEquals("Missing value for 'firstName'", results.get(4).getMessage());
+        assertEquals("Expected 4 fields, found 3", results.get(5).getMessage());
+        results.forEach(result -> assertNotNull(result.getMessage()));
+    }
+
+    @Test
+    void validRowsAreEnrolledWithTheirHomeworks() throws Exception {
+        teamService.addAndEnroll(new StringReader(HEADER +
+                "s1,Rossi,Mario,s1@studenti.polito.it\n" +
+                "s3,Verdi,Luca,s3@studenti.polito.it\n" +
+                "s4,Neri,,s4@studenti.polito.it\n"), courseId);
+
+        assertEquals(Set.of("s1", "s2", "s3"), Set.copyOf(studentRepo.findEnrolledIds(courseId, List.of("s1", "s2", "s3", "s4"))));
+        assertFalse(studentRepo.existsById("s4"));
+        assertEquals(Set.of("s1", "s3"), homeworkRepo.findAll().stream()
+                .map(Homework::getStudent_id)
+                .collect(Collectors.toSet()));
+    }
+
+    @Test
+    void missingColumnInvalidatesEveryRow() throws Exception {
+        List<EnrollmentResultDTO> results = teamService.addAndEnroll(new StringReader("id,lastName,firstName\n" +
+                "s1,Rossi,Mario\n"), courseId);
+
+        assertEquals(1, results.size());
+        assertEquals(EnrollmentStatus.INVALID, results.get(0).getStatus());
+        assertEquals("Missing column 'email'", results.get(0).getMessage());
+    }
+
+    @Test
+    void eachChunkIsEnrolledInItsOwnTransactionWithBatches() throws Exception {
+        StringBuilder roster = new StringBuilder(HEADER);
+        for (int i = 0; i < ROSTER_SIZE; i++)
+            roster.append("n").append(i).append(",Rossi,Mario,n").append(i).append("@studenti.polito.it\n");
+        Statistics statistics = clearedStatistics();
+
+        List<EnrollmentResultDTO> results = teamService.addAndEnroll(new StringReader(roster.toString()), courseId);
+
+        assertTrue(results.stream().allMatch(result -> result.getStatus() == EnrollmentStatus.ENROLLED));
+        // the course lookup, then one transaction per chunk
+        assertEquals(3, statistics.getSuccessfulTransactionCount());
+        // course and assignments, then per chunk the two id lookups and one batched insert of students and of homeworks
+        assertEquals(2 + 2 * (2 + 1 + 1), statistics.getPrepareStatementCount());
+        verify(jdbcTemplate, times(2)).batchUpdate(startsWith("INSERT INTO student_course"), anyCollection(), anyInt(), any());
+        assertEquals(ROSTER_SIZE, studentRepo.findEnrolledIds(courseId, results.stream()
+                .map(EnrollmentResultDTO::getStudentId)
+                .collect(Collectors.toList())).size());
+    }
+}
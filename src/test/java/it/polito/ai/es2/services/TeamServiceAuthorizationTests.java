@@ -0,0 +1,81 @@
+package it.polito.ai.es2.services;
+
+import it.polito.ai.es2.configurations.MethodSecurityConfig;
+import it.polito.ai.es2.entities.Course;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+/**
+ * The {@code @PreAuthorize} expressions of the service run through the method security of the application:
+ * {@code @permissionEvaluator} calls resolve to the bean, and roles that settle an expression skip them.
+ */
+@Import(MethodSecurityConfig.class)
+class TeamServiceAuthorizationTests extends AbstractTeamServiceTests {
+
+    private Long courseId;
+
+    @BeforeEach
+    void setUp() {
+        Course course = course();
+        course.setEnabled(false);
+        entityManager.persist(course);
+        flushAndClear();
+        courseId = course.getId();
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void teacherOfTheCourseIsCheckedByThePermissionEvaluator() {
+        when(permissionEvaluator.teacherHasCourse("d1", courseId)).thenReturn(true);
+        authenticate("d1", "ROLE_TEACHER");
+
+        assertDoesNotThrow(() -> teamService.enableCourse(courseId));
+        verify(permissionEvaluator).teacherHasCourse("d1", courseId);
+    }
+
+    @Test
+    void teacherOfAnotherCourseIsDenied() {
+        when(permissionEvaluator.teacherHasCourse("d2", courseId)).thenReturn(false);
+        authenticate("d2", "ROLE_TEACHER");
+
+        assertThrows(AccessDeniedException.class, () -> teamService.enableCourse(courseId));
+        verify(permissionEvaluator).teacherHasCourse("d2", courseId);
+    }
+
+    @Test
+    void adminIsAllowedWithoutThePermissionEvaluator() {
+        authenticate("admin", "ROLE_ADMIN");
+
+        assertDoesNotThrow(() -> teamService.enableCourse(courseId));
+        verifyNoInteractions(permissionEvaluator);
+    }
+
+    @Test
+    void studentIsDeniedWithoutThePermissionEvaluator() {
+        authenticate("s1", "ROLE_STUDENT");
+
+        assertThrows(AccessDeniedException.class, () -> teamService.enableCourse(courseId));
+        verifyNoInteractions(permissionEvaluator);
+    }
+
+    private static void authenticate(String username, String role) {
+        UserDetails user = User.withUsername(username).password("").authorities(role).build();
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+    }
+}